@@ -0,0 +1,381 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * This is Thread-safe version of InvertedIndex where readers never wait on
+ * writers. Words live in a concurrent sorted map, and each word has its own
+ * concurrent sorted map of location to positions, so writers to different
+ * words or locations never meet. Posting lists are sealed before they are
+ * published and never changed afterwards: adding positions to a location
+ * replaces its list with a merged copy, so a reader always sees either the old
+ * or the new list, never one being changed.
+ *
+ * @author alex
+ */
+public class ConcurrentInvertedIndex extends ThreadSafeInvertedIndex {
+
+	/**
+	 * Word to location to positions.
+	 */
+	private final ConcurrentSkipListMap<String, ConcurrentSkipListMap<String, PostingList>> index;
+
+	/**
+	 * Location to word count.
+	 */
+	private final ConcurrentSkipListMap<String, Integer> counts;
+
+	/**
+	 * This is constructor for the empty index.
+	 */
+	public ConcurrentInvertedIndex() {
+		super();
+		this.index = new ConcurrentSkipListMap<>();
+		this.counts = new ConcurrentSkipListMap<>();
+	}
+
+	@Override
+	public void addAll(InvertedIndex other) {
+		other.forEach((word, location, positions) -> addPositions(word, location, positions));
+	}
+
+	@Override
+	public void addAll(String word, String location, PostingList positions) {
+		addPositions(word, location, positions);
+	}
+
+	@Override
+	public void forEach(PostingVisitor visitor) {
+		for (Map.Entry<String, ConcurrentSkipListMap<String, PostingList>> word : index.entrySet()) {
+			for (Map.Entry<String, PostingList> location : word.getValue().entrySet()) {
+				visitor.visit(word.getKey(), location.getKey(), location.getValue());
+			}
+		}
+	}
+
+	@Override
+	public void forEach(String word, PostingVisitor visitor) {
+		Map<String, PostingList> locations = index.get(word);
+		if (locations != null) {
+			for (Map.Entry<String, PostingList> location : locations.entrySet()) {
+				visitor.visit(word, location.getKey(), location.getValue());
+			}
+		}
+	}
+
+	@Override
+	public void addAll(String path, String[] element) {
+		addAll(path, element, 1);
+	}
+
+	@Override
+	public void addAll(String path, String[] element, int start) {
+		HashMap<String, PostingList> local = new HashMap<>();
+		for (String word : element) {
+			local.computeIfAbsent(word, key -> new PostingList()).add(start++);
+		}
+
+		for (Map.Entry<String, PostingList> entry : local.entrySet()) {
+			addPositions(entry.getKey(), path, entry.getValue());
+		}
+	}
+
+	/**
+	 * This function adds a single position. Every call copies the posting list
+	 * of the location, so positions are better added a whole location at a
+	 * time with {@link #addAll(String, String[], int)}.
+	 */
+	@Override
+	public boolean addEntry(String word, String filename, int position) {
+		PostingList single = new PostingList();
+		single.add(position);
+		return addPositions(word, filename, single);
+	}
+
+	/**
+	 * This function publishes the positions of a word in a location. The word
+	 * count is raised first, so a reader that finds the positions also finds a
+	 * count covering them.
+	 *
+	 * @param word      to add
+	 * @param location  the word is found in
+	 * @param positions of the word in the location, not changed by this call
+	 * @return true if any position was not already there
+	 */
+	private boolean addPositions(String word, String location, PostingList positions) {
+		if (positions.isEmpty()) {
+			return false;
+		}
+
+		PostingList sealed = positions.isSealed() ? positions : PostingList.decode(positions.encode(), positions.size());
+		counts.merge(location, sealed.last(), Math::max);
+
+		boolean[] added = new boolean[1];
+		ConcurrentSkipListMap<String, PostingList> locations;
+		do {
+			// a removal may drop the map of the word once it is empty, so add again,
+			// see removeAll(Collection) for a removal dropping it after this check
+			locations = index.computeIfAbsent(word, key -> new ConcurrentSkipListMap<>());
+			locations.compute(location, (key, old) -> {
+				if (old == null) {
+					added[0] = true;
+					return sealed;
+				}
+				PostingList merged = union(old, sealed);
+				added[0] = merged != old;
+				return merged;
+			});
+		} while (index.get(word) != locations);
+		return added[0];
+	}
+
+	/**
+	 * This function removes the positions of the locations from every word,
+	 * then their word counts, the reverse order of adding, so a search that
+	 * finds a location without a count knows it was removed. The map of a word
+	 * is dropped once it is empty, and a writer that adds to it at the same time
+	 * either sees it dropped and adds again, or is added again by this call.
+	 */
+	@Override
+	public boolean removeAll(Collection<String> removed) {
+		HashSet<String> set = new HashSet<>(removed);
+		boolean changed = false;
+		for (Map.Entry<String, ConcurrentSkipListMap<String, PostingList>> entry : index.entrySet()) {
+			String word = entry.getKey();
+			ConcurrentSkipListMap<String, PostingList> locations = entry.getValue();
+			if (locations.keySet().removeAll(set)) {
+				changed = true;
+			}
+			if (locations.isEmpty() && index.remove(word, locations) && !locations.isEmpty()) {
+				// a writer added to the map after it was found empty, and may have
+				// checked it was still published before it was dropped, so add again
+				locations.forEach((location, positions) -> addPositions(word, location, positions));
+			}
+		}
+		return counts.keySet().removeAll(set) || changed;
+	}
+
+	/**
+	 * This function returns false, since replacing removes and adds in two
+	 * steps.
+	 */
+	@Override
+	public boolean isReplaceAtomic() {
+		return false;
+	}
+
+	/**
+	 * This function removes the locations and then adds the other index. The
+	 * two steps are not atomic, so a search in between may miss a location that
+	 * was replaced.
+	 */
+	@Override
+	public void replaceAll(Collection<String> removed, InvertedIndex added) {
+		removeAll(removed);
+		addAll(added);
+	}
+
+	/**
+	 * This function merges two sealed posting lists into a new sealed list,
+	 * leaving both unchanged. The map may call it more than once for the same
+	 * update, so it must not have side effects.
+	 *
+	 * @param old   positions already published
+	 * @param added positions to add
+	 * @return old if it already holds every added position, otherwise a new list
+	 */
+	private static PostingList union(PostingList old, PostingList added) {
+		if (old.containsAll(added)) {
+			return old;
+		}
+
+		PostingList merged = PostingList.decode(old.encode(), old.size());
+		merged.addAll(added);
+		merged.seal();
+		return merged;
+	}
+
+	/**
+	 * This function does nothing, since posting lists are sealed before they
+	 * are published.
+	 */
+	@Override
+	public void seal() {
+	}
+
+	@Override
+	public Map<String, Integer> getCounts() {
+		return Collections.unmodifiableMap(counts);
+	}
+
+	@Override
+	public void printIndex(Path outFile) throws IOException {
+		SimpleJsonWriter.asDoubleNested(index, outFile);
+	}
+
+	@Override
+	public void writeSegment(Path outFile) throws IOException {
+		InvertedIndex copy = new InvertedIndex();
+		forEach(copy::addAll);
+		copy.writeSegment(outFile);
+	}
+
+	@Override
+	public boolean contains(String word) {
+		return index.containsKey(word);
+	}
+
+	@Override
+	public boolean contains(String word, String path) {
+		Map<String, PostingList> locations = index.get(word);
+		return locations != null && locations.containsKey(path);
+	}
+
+	@Override
+	public boolean contains(String word, String path, int position) {
+		PostingList positions = get(word, path);
+		return positions != null && positions.contains(position);
+	}
+
+	@Override
+	public int size() {
+		return index.size();
+	}
+
+	@Override
+	public int size(String word) {
+		Map<String, PostingList> locations = index.get(word);
+		return locations != null ? locations.size() : 0;
+	}
+
+	@Override
+	public Set<String> getWords() {
+		return Collections.unmodifiableSet(index.keySet());
+	}
+
+	@Override
+	public Set<String> getLocations(String word) {
+		ConcurrentSkipListMap<String, PostingList> locations = index.get(word);
+		if (locations == null) {
+			return Collections.emptySet();
+		} else {
+			return Collections.unmodifiableSet(locations.keySet());
+		}
+	}
+
+	@Override
+	public Set<Integer> getPositions(String word, String location) {
+		PostingList positions = get(word, location);
+		if (positions == null) {
+			return Collections.emptySet();
+		} else {
+			return Collections.unmodifiableSet(positions);
+		}
+	}
+
+	/**
+	 * This function returns the positions of a word in a location.
+	 *
+	 * @param word     to look up
+	 * @param location to look up
+	 * @return posting list, or null if not found
+	 */
+	private PostingList get(String word, String location) {
+		Map<String, PostingList> locations = index.get(word);
+		return locations != null ? locations.get(location) : null;
+	}
+
+	@Override
+	public ArrayList<SearchResult> search(Collection<String> queries, boolean exact) {
+		return exact ? exactSearch(queries) : partialSearch(queries);
+	}
+
+	@Override
+	public ArrayList<SearchResult> search(Collection<String> queries, boolean exact, int limit) {
+		return exact ? exactSearch(queries, limit) : partialSearch(queries, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(Collection<String> queries) {
+		return exactMatches(queries).getResults();
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(Collection<String> queries, int limit) {
+		return exactMatches(queries).topResults(limit);
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(Collection<String> queries) {
+		return partialMatches(queries).getResults();
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(Collection<String> queries, int limit) {
+		return partialMatches(queries).topResults(limit);
+	}
+
+	@Override
+	protected void forEachMatch(Collection<String> queries, boolean exact, ObjIntConsumer<String> visitor) {
+		(exact ? exactMatches(queries) : partialMatches(queries)).forEach(visitor);
+	}
+
+	/**
+	 * This function counts the matches of every location matching the queries
+	 * exactly.
+	 *
+	 * @param queries to search
+	 * @return matches of the search
+	 */
+	private LocationMatches exactMatches(Collection<String> queries) {
+		LocationMatches matches = new LocationMatches(counts);
+		for (String query : queries) {
+			Map<String, PostingList> found = index.get(query);
+			if (found != null) {
+				addMatches(matches, found);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * This function counts the matches of every location with a word starting
+	 * with the queries.
+	 *
+	 * @param queries to search
+	 * @return matches of the search
+	 */
+	private LocationMatches partialMatches(Collection<String> queries) {
+		LocationMatches matches = new LocationMatches(counts);
+		for (String query : queries) {
+			for (Map.Entry<String, ConcurrentSkipListMap<String, PostingList>> entry : index.tailMap(query)
+					.entrySet()) {
+				if (!entry.getKey().startsWith(query)) {
+					break;
+				}
+				addMatches(matches, entry.getValue());
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * This function adds the term frequency of every location of a word.
+	 *
+	 * @param matches of the search
+	 * @param found   location to positions of the word
+	 */
+	private static void addMatches(LocationMatches matches, Map<String, PostingList> found) {
+		for (Map.Entry<String, PostingList> entry : found.entrySet()) {
+			matches.add(entry.getKey(), entry.getValue().size());
+		}
+	}
+}
@@ -0,0 +1,341 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps an inverted index current with a directory tree while it
+ * is being searched. Every directory of the tree is registered with a
+ * {@link WatchService}, and once events stop arriving for the debounce delay
+ * the tree is compared with a {@link FileManifest}, so a burst of writes to
+ * many files is indexed in one update and a file is only read again if its
+ * contents changed. The files that changed are indexed into a local index
+ * first, then swapped in with
+ * {@link InvertedIndex#replaceAll(java.util.Collection, InvertedIndex)}, so the
+ * index is only locked for the swap, and the manifest only records them once
+ * the swap is done. A file that can not be read is left as it was in the
+ * index and the manifest and tried again after the longest debounce wait,
+ * without the other files of the update waiting for it.
+ *
+ * Every update reports how long after the oldest write it became searchable,
+ * taking the write time from the modified time of the files.
+ *
+ * @author alex
+ */
+public class DirectoryWatcher implements Closeable {
+
+	/**
+	 * Default time in milliseconds without events before the index is updated.
+	 */
+	public static final long DEFAULT_DEBOUNCE = 200;
+
+	/**
+	 * Most debounce delays an update waits while events keep arriving, so files
+	 * written continuously are still indexed.
+	 */
+	private static final int MAX_DELAYS = 10;
+
+	/**
+	 * The directory tree to watch.
+	 */
+	private final Path root;
+
+	/**
+	 * The index to keep current.
+	 */
+	private final ThreadSafeInvertedIndex index;
+
+	/**
+	 * The files the index was built from, only used by the watching thread.
+	 */
+	private final FileManifest manifest;
+
+	/**
+	 * Time in milliseconds without events before the index is updated.
+	 */
+	private final long debounce;
+
+	/**
+	 * The watch service every directory is registered with.
+	 */
+	private final WatchService watcher;
+
+	/**
+	 * Directory of each registered key.
+	 */
+	private final Map<WatchKey, Path> keys;
+
+	/**
+	 * The thread watching the tree.
+	 */
+	private final Thread thread;
+
+	/**
+	 * Time in milliseconds the last update started comparing the tree, so
+	 * writes before it were already indexed.
+	 */
+	private long since;
+
+	/**
+	 * True if the last update left files to try again, only used by the
+	 * watching thread.
+	 */
+	private boolean retry;
+
+	/**
+	 * Number of updates made.
+	 */
+	private volatile int updates;
+
+	/**
+	 * Milliseconds from the oldest write to searchable of the last update.
+	 */
+	private volatile long latency;
+
+	/**
+	 * Constructor for a watcher of a directory tree the index was built from.
+	 *
+	 * @param root     the directory tree
+	 * @param index    the index to keep current, which must replace files
+	 *                 atomically
+	 * @param manifest of the files the index was built from
+	 * @param debounce time in milliseconds without events before the index is
+	 *                 updated
+	 * @throws IOException if the tree cannot be watched
+	 */
+	public DirectoryWatcher(Path root, ThreadSafeInvertedIndex index, FileManifest manifest, long debounce)
+			throws IOException {
+		if (!index.isReplaceAtomic()) {
+			throw new IllegalArgumentException("The index does not replace files atomically.");
+		}
+		this.root = root;
+		this.index = index;
+		this.manifest = manifest;
+		this.debounce = Math.max(debounce, 1);
+		this.watcher = FileSystems.getDefault().newWatchService();
+		this.keys = new HashMap<>();
+		this.thread = new Thread(this::run, "watcher");
+		this.thread.setDaemon(true);
+		this.since = 0;
+		this.retry = false;
+		this.updates = 0;
+		this.latency = -1;
+	}
+
+	/**
+	 * This function registers every directory of the tree and starts watching
+	 * it.
+	 *
+	 * @throws IOException if the tree cannot be watched
+	 */
+	public void start() throws IOException {
+		since = System.currentTimeMillis();
+		register(root);
+		thread.start();
+	}
+
+	/**
+	 * This function waits until the watcher is closed.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void join() throws InterruptedException {
+		thread.join();
+	}
+
+	/**
+	 * This function returns how many updates were made.
+	 *
+	 * @return number of updates
+	 */
+	public int getUpdates() {
+		return updates;
+	}
+
+	/**
+	 * This function returns how long after the oldest write the last update
+	 * became searchable.
+	 *
+	 * @return milliseconds, or -1 if there was no update yet
+	 */
+	public long getLatency() {
+		return latency;
+	}
+
+	/**
+	 * This function stops watching the tree.
+	 *
+	 * @throws IOException if the watch service cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		watcher.close();
+	}
+
+	/**
+	 * This function registers a directory and every directory under it. Files
+	 * created before a new directory is registered are still found, since an
+	 * update compares the whole tree with the manifest.
+	 *
+	 * @param start the directory
+	 * @throws IOException if the directory cannot be watched
+	 */
+	private void register(Path start) throws IOException {
+		Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+				new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes)
+							throws IOException {
+						WatchKey key = directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+								StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+						keys.put(key, directory);
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path file, IOException e) {
+						return FileVisitResult.CONTINUE;
+					}
+				});
+	}
+
+	/**
+	 * This function is the loop of the watching thread, waiting for an event
+	 * and then for the events to stop before every update, until closed. If
+	 * the last update left files to try again, it waits at most the longest
+	 * debounce wait for an event.
+	 */
+	private void run() {
+		try {
+			while (true) {
+				WatchKey event = retry ? watcher.poll(debounce * MAX_DELAYS, TimeUnit.MILLISECONDS) : watcher.take();
+				if (event != null && !handle(event) && !retry) {
+					continue;
+				}
+
+				long first = System.currentTimeMillis();
+				long deadline = first + debounce * MAX_DELAYS;
+				WatchKey key;
+				while (System.currentTimeMillis() < deadline
+						&& (key = watcher.poll(debounce, TimeUnit.MILLISECONDS)) != null) {
+					handle(key);
+				}
+				update(first);
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// stop watching
+		}
+	}
+
+	/**
+	 * This function reads the events of a key, registering new directories.
+	 *
+	 * @param key the key signalled
+	 * @return true if any event may change the index
+	 */
+	private boolean handle(WatchKey key) {
+		Path directory = keys.get(key);
+		boolean changed = false;
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+				changed = true;
+				continue;
+			}
+
+			Path child = directory.resolve((Path) event.context());
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+				try {
+					register(child);
+				} catch (IOException e) {
+					System.out.println("Unable to watch directory: " + child);
+				}
+			}
+			// other files that are still there, such as editor swap files, never change the index
+			if (!Files.isRegularFile(child) || InvertedIndexBuilder.isTextFile(child)) {
+				changed = true;
+			}
+		}
+
+		if (!key.reset()) {
+			keys.remove(key);
+		}
+		return changed;
+	}
+
+	/**
+	 * This function indexes the files that changed since the last update and
+	 * swaps them into the index. Each file is indexed on its own, so a file
+	 * that can not be read is only left out by itself: one that vanished is
+	 * removed, and one that is still there is tried again.
+	 *
+	 * @param first time in milliseconds of the first event of the update
+	 */
+	private void update(long first) {
+		retry = true;
+		try {
+			long start = System.currentTimeMillis();
+			FileManifest.Changes changes = manifest.diff(InvertedIndexBuilder.getTextFiles(root));
+			if (changes.isEmpty()) {
+				// files only touched are recorded, so they are not hashed again
+				manifest.commit(changes);
+				retry = false;
+				return;
+			}
+
+			List<Path> changed = changes.getChanged();
+			List<Path> failed = new ArrayList<>();
+			InvertedIndex local = new InvertedIndex();
+			for (Path file : changed) {
+				try {
+					InvertedIndex single = new InvertedIndex();
+					InvertedIndexBuilder.addPath(file, single);
+					local.addAll(single);
+				} catch (IOException | RuntimeException e) {
+					failed.add(file);
+				}
+			}
+			changes.exclude(failed);
+
+			index.replaceAll(changes.getRemoved(), local);
+			index.seal();
+			long searchable = System.currentTimeMillis();
+			manifest.commit(changes);
+			retry = !changes.getFailed().isEmpty();
+
+			// files copied with their old modified time were written no earlier than the last update
+			long written = first;
+			for (Path file : changed) {
+				try {
+					written = Math.min(written, Math.max(since, Files.getLastModifiedTime(file).toMillis()));
+				} catch (IOException e) {
+					// deleted again since, the event time is used instead
+				}
+			}
+			since = start;
+
+			latency = searchable - written;
+			updates++;
+			System.out.printf("Watch: %s, searchable %d ms after the write (waited %d ms, indexed in %d ms)%n", changes,
+					latency, start - first, searchable - start);
+		} catch (IOException | RuntimeException e) {
+			System.out.println("Unable to update the index from path: " + root);
+		}
+	}
+}
@@ -0,0 +1,208 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This is document table that interns every location of the inverted index as
+ * a dense int ID and keeps the word count of each location, so location
+ * strings are stored once instead of once per word.
+ *
+ * @author alex
+ */
+public class DocumentTable {
+
+	/**
+	 * Map from location to its ID.
+	 */
+	private final HashMap<String, Integer> ids;
+
+	/**
+	 * List of locations, indexed by ID.
+	 */
+	private final ArrayList<String> locations;
+
+	/**
+	 * Word count of each location, indexed by ID.
+	 */
+	private int[] counts;
+
+	/**
+	 * Sorted map of every location to its word count, or null if the table
+	 * changed since it was built.
+	 */
+	private volatile Map<String, Integer> sorted;
+
+	/**
+	 * This is constructor for the empty table.
+	 */
+	public DocumentTable() {
+		this.ids = new HashMap<>();
+		this.locations = new ArrayList<>();
+		this.counts = new int[16];
+		this.sorted = null;
+	}
+
+	/**
+	 * This function returns the ID of the location, adding the location if it is
+	 * new.
+	 *
+	 * @param location to intern
+	 * @return ID of the location
+	 */
+	public int add(String location) {
+		Integer id = ids.get(location);
+		if (id == null) {
+			id = locations.size();
+			ids.put(location, id);
+			locations.add(location);
+			if (id >= counts.length) {
+				counts = Arrays.copyOf(counts, counts.length * 2);
+			}
+			changed();
+		}
+		return id;
+	}
+
+	/**
+	 * This function returns the ID of the location.
+	 *
+	 * @param location to look up
+	 * @return ID of the location, or -1 if not found
+	 */
+	public int get(String location) {
+		Integer id = ids.get(location);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * This function returns the location for an ID.
+	 *
+	 * @param id of the location
+	 * @return the location
+	 */
+	public String getLocation(int id) {
+		return locations.get(id);
+	}
+
+	/**
+	 * This function returns the word count of a location.
+	 *
+	 * @param id of the location
+	 * @return word count
+	 */
+	public int getCount(int id) {
+		return counts[id];
+	}
+
+	/**
+	 * This function raises the word count of a location to the position if the
+	 * position is larger.
+	 *
+	 * @param id       of the location
+	 * @param position seen in the location
+	 */
+	public void updateCount(int id, int position) {
+		if (position > counts[id]) {
+			counts[id] = position;
+			changed();
+		}
+	}
+
+	/**
+	 * This function drops the sorted map of counts, only writing it if it was
+	 * built, since counts change on nearly every word added.
+	 */
+	private void changed() {
+		if (sorted != null) {
+			sorted = null;
+		}
+	}
+
+	/**
+	 * This function removes locations from the table. IDs stay dense: the
+	 * locations after a removed one move down, keeping their order.
+	 *
+	 * @param removed locations to remove
+	 * @return new ID of every old ID, or -1 if removed, or null if none of the
+	 *         locations were in the table
+	 */
+	public int[] removeAll(Collection<String> removed) {
+		int[] remap = new int[locations.size()];
+		boolean found = false;
+		for (String location : removed) {
+			Integer id = ids.get(location);
+			if (id != null) {
+				remap[id] = -1;
+				found = true;
+			}
+		}
+		if (!found) {
+			return null;
+		}
+
+		int kept = 0;
+		for (int id = 0; id < remap.length; id++) {
+			String location = locations.get(id);
+			if (remap[id] < 0) {
+				ids.remove(location);
+				continue;
+			}
+			remap[id] = kept;
+			locations.set(kept, location);
+			counts[kept] = counts[id];
+			ids.put(location, kept);
+			kept++;
+		}
+		locations.subList(kept, locations.size()).clear();
+		Arrays.fill(counts, kept, remap.length, 0);
+		changed();
+		return remap;
+	}
+
+	/**
+	 * This function returns how many locations are in the table.
+	 *
+	 * @return number of locations
+	 */
+	public int size() {
+		return locations.size();
+	}
+
+	/**
+	 * This function returns sorted map of every location and its word count.
+	 * The map is built once and kept until the table changes, so it is only
+	 * built again by the first call after new words were added.
+	 *
+	 * @return unmodifiable sorted map of location to count
+	 */
+	public Map<String, Integer> getCounts() {
+		Map<String, Integer> current = sorted;
+		if (current == null) {
+			current = seal();
+		}
+		return current;
+	}
+
+	/**
+	 * This function builds the sorted map of counts once words are done being
+	 * added, so later calls of {@link #getCounts()} share it.
+	 *
+	 * @return unmodifiable sorted map of location to count
+	 */
+	public Map<String, Integer> seal() {
+		Map<String, Integer> current = sorted;
+		if (current == null) {
+			TreeMap<String, Integer> map = new TreeMap<>();
+			for (int id = 0; id < locations.size(); id++) {
+				map.put(locations.get(id), counts[id]);
+			}
+			current = Collections.unmodifiableMap(map);
+			sorted = current;
+		}
+		return current;
+	}
+}
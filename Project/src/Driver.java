@@ -1,6 +1,8 @@
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.time.Instant;
 
@@ -23,6 +25,12 @@ import org.eclipse.jetty.servlet.ServletHolder;
  */
 public class Driver {
 
+	/**
+	 * Most work requests waiting per thread in the shared work queue, so no
+	 * phase reads or fetches far ahead of the threads.
+	 */
+	private static final int QUEUED_PER_THREAD = 4;
+
 	/**
 	 * Initializes the classes necessary based on the provided command-line
 	 * arguments. This includes (but is not limited to) how to build or search an
@@ -41,9 +49,44 @@ public class Driver {
 		QueueInterface queryHandler;
 		
 		WebCrawler webCrawler;
+		WorkQueue workQueue = null;
 		SearchServlet search;
 		
-		if (parse.hasValue("-threads") || parse.hasValue("-url") || parse.hasValue("-port")) {
+		IndexSegment segment = null;
+		FileManifest manifest = null;
+		FileManifest.Changes changes = null;
+		boolean updateFailed = false;
+		
+		if (parse.hasFlag("-metrics")) {
+			WorkQueue.setManaged(true);
+		}
+		
+		if (parse.hasFlag("-load") && parse.getPath("-load") != null) {
+			Path path = parse.getPath("-load");
+			try {
+				segment = IndexSegment.open(path);
+			} catch (IOException e) {
+				System.out.println("Unable to load the index segment at path: " + path);
+			}
+		}
+		
+		// a manifest of the files indexed lets a later build only read what changed
+		if (parse.hasFlag("-path") && parse.getPath("-path") != null) {
+			if (segment != null) {
+				Path path = FileManifest.pathOf(parse.getPath("-load"));
+				try {
+					manifest = FileManifest.read(path);
+				} catch (IOException e) {
+					System.out.println("Unable to read the manifest at path: " + path + ", indexing every file again");
+					segment = null;
+					manifest = new FileManifest();
+				}
+			} else if (parse.hasFlag("-segment") || parse.hasFlag("-watch")) {
+				manifest = new FileManifest();
+			}
+		}
+		
+		if (parse.hasValue("-threads") || parse.hasValue("-url") || parse.hasValue("-port") || parse.hasFlag("-watch")) {
 			try {
 				numThreads = Integer.parseInt(parse.getString("-threads"));
 				if (numThreads <= 0) {
@@ -53,18 +96,49 @@ public class Driver {
 				numThreads = 5;
 			}
 			
-			ThreadedInvertedIndex threadSafe = new ThreadedInvertedIndex();
-			index = threadSafe;
-			builder = new ThreadedInvertedIndexBuilder(threadSafe, numThreads);
-			queryHandler = new ThreadedQueryHandler(threadSafe, numThreads);
+			// one work queue for every phase, so threads are started once
+			workQueue = new WorkQueue(numThreads, numThreads * QUEUED_PER_THREAD, WorkQueue.Policy.BLOCK);
 			
-			if (parse.hasValue("-limit")) {
-				webCrawler = new WebCrawler(threadSafe, numThreads, Integer.parseInt(parse.getString("-limit")));
+			ThreadSafeInvertedIndex threadSafe = null;
+			
+			if (segment != null && manifest == null) {
+				index = segment;
+				builder = null;
 			} else {
-				webCrawler = new WebCrawler(threadSafe, numThreads, 50);
+				if (parse.hasFlag("-concurrent")) {
+					threadSafe = new ConcurrentInvertedIndex();
+				} else if (parse.hasFlag("-snapshot")) {
+					threadSafe = new SnapshotInvertedIndex();
+				} else if (parse.hasFlag("-shards")) {
+					int numShards;
+					try {
+						numShards = Integer.parseInt(parse.getString("-shards"));
+					} catch (Exception e) {
+						numShards = ShardedInvertedIndex.DEFAULT_SHARDS;
+					}
+					threadSafe = new ShardedInvertedIndex(numShards);
+				} else {
+					threadSafe = new ThreadedInvertedIndex(new FairReadWriteLock(parse.hasFlag("-fair")));
+				}
+				if (segment != null) {
+					threadSafe.addAll(segment);
+				}
+				index = threadSafe;
+				if (parse.hasFlag("-pipeline")) {
+					builder = newPipeline(parse.getString("-pipeline"), threadSafe, numThreads);
+				} else {
+					builder = new ThreadedInvertedIndexBuilder(threadSafe, workQueue);
+				}
 			}
+			queryHandler = new ThreadedQueryHandler(index, workQueue);
 			
-			if (parse.hasValue("-url")) {
+			if (threadSafe != null && parse.hasValue("-url")) {
+				if (parse.hasValue("-limit")) {
+					webCrawler = new WebCrawler(threadSafe, workQueue, Integer.parseInt(parse.getString("-limit")), parse.hasFlag("-virtual"));
+				} else {
+					webCrawler = new WebCrawler(threadSafe, workQueue, 50, parse.hasFlag("-virtual"));
+				}
+				
 				try {
 					URL seedURL = new URL(parse.getString("-url"));
 					webCrawler.traverse(seedURL);
@@ -72,61 +146,49 @@ public class Driver {
 					System.out.println("Something went wrong with URL:" + parse.getString("-url"));
 				}
 			}
+		} else if (segment != null && manifest == null) {
+			index = segment;
+			builder = null;
+			queryHandler = new QueryHandler(index);
 			
-			if (parse.hasValue("-port")) {
-				search = new SearchServlet(queryHandler, threadSafe);
-
-				int port;
-
-				try {
-					port = Integer.parseInt(parse.getString("-port"));
-				} catch (Exception e) {
-					port = 8090;
-				}
-
-				try {
-					ServletContextHandler servletContext = null;
-
-					servletContext = new ServletContextHandler(ServletContextHandler.SESSIONS);
-					servletContext.setContextPath("/");
-
-					DefaultHandler defaultHandler = new DefaultHandler();
-					defaultHandler.setServeIcon(true);
-
-					ContextHandler defaultContext = new ContextHandler("/favicon.ico");
-					defaultContext.setHandler(defaultHandler);
-
-					ServletHolder sholder = new ServletHolder(search);
-
-					ServletHandler handler = new ServletHandler();
-					handler.addServletWithMapping(sholder, "/");
-
-					Server server = new Server(port);
-					server.setHandler(handler);
-					server.start();
-					server.join();
-
-				} catch (Exception e) {
-					System.err.println("Jetty server Did not work");
-				}
-			}
 		} else { 
 			index = new InvertedIndex();
-			builder = new InvertedIndexBuilder(index);
+			if (segment != null) {
+				index.addAll(segment);
+			}
+			if (parse.hasFlag("-pipeline")) {
+				builder = newPipeline(parse.getString("-pipeline"), index, numThreads);
+			} else {
+				builder = new InvertedIndexBuilder(index);
+			}
 			queryHandler = new QueryHandler(index);
 			
 		}
 		
-		if (parse.hasFlag("-path") && parse.getPath("-path") != null) {
+		if (builder != null && parse.hasFlag("-path") && parse.getPath("-path") != null) {
 			Path path = parse.getPath("-path");
 			try {
-				builder.traversePath(path);
+				if (manifest == null) {
+					builder.traversePath(path);
+				} else {
+					changes = builder.updatePath(path, manifest);
+					if (segment != null) {
+						System.out.printf("Updated index: %s%n", changes);
+					}
+				}
 			} 
 			catch (IOException e) {
 				System.out.println("Path cant be traversed: " + path); 
+				// the index may be part way updated, so it no longer matches any manifest
+				updateFailed = manifest != null;
 			}
 		}
 		
+		// with a segment the changes are only recorded once it is written
+		if (changes != null && !parse.hasFlag("-segment")) {
+			manifest.commit(changes);
+		}
+		
 		if (parse.hasFlag("-counts")) {
 			Path path = parse.getPath("-counts", Path.of("counts.json"));
 			try {
@@ -147,6 +209,29 @@ public class Driver {
 			}
 		}
 		
+		if (parse.hasFlag("-segment") && updateFailed) {
+			System.out.println("Index segment not written, the update failed: " + parse.getPath("-segment", Path.of("index.seg")));
+		} else if (parse.hasFlag("-segment")) {
+			Path path = parse.getPath("-segment", Path.of("index.seg"));
+			try {
+				index.writeSegment(path);
+				Path manifestPath = FileManifest.pathOf(path);
+				if (manifest != null) {
+					if (changes != null) {
+						manifest.commit(changes);
+					}
+					manifest.write(manifestPath);
+				} else if (index == segment && Files.exists(FileManifest.pathOf(parse.getPath("-load")))) {
+					Files.copy(FileManifest.pathOf(parse.getPath("-load")), manifestPath, StandardCopyOption.REPLACE_EXISTING);
+				} else {
+					Files.deleteIfExists(manifestPath);
+				}
+			}
+			catch (IOException e) {
+				System.out.println("Unable to write the index segment at path: " + path);
+			}
+		}
+		
 		if(parse.hasFlag("-query") && parse.getPath("-query") != null) {
 			Path queryPath = parse.getPath("-query");
 			try {
@@ -171,8 +256,118 @@ public class Driver {
 			
 		}
 		
+		DirectoryWatcher watcher = null;
+		if (manifest != null && parse.hasFlag("-watch") && index instanceof ThreadSafeInvertedIndex
+				&& !((ThreadSafeInvertedIndex) index).isReplaceAtomic()) {
+			// searches could miss a file while it is replaced
+			System.out.println("Unable to watch path with -concurrent or -shards: " + parse.getPath("-path"));
+		} else if (manifest != null && parse.hasFlag("-watch") && index instanceof ThreadSafeInvertedIndex) {
+			Path path = parse.getPath("-path");
+			long debounce;
+			try {
+				debounce = Long.parseLong(parse.getString("-watch"));
+			} catch (Exception e) {
+				debounce = DirectoryWatcher.DEFAULT_DEBOUNCE;
+			}
+			try {
+				watcher = new DirectoryWatcher(path, (ThreadSafeInvertedIndex) index, manifest, debounce);
+				watcher.start();
+				System.out.println("Watching path: " + path);
+			} catch (IOException e) {
+				System.out.println("Unable to watch path: " + path);
+				watcher = null;
+			}
+		}
+		
+		if (workQueue != null && parse.hasValue("-port")) {
+			search = new SearchServlet(queryHandler, index, workQueue);
+
+			int port;
+
+			try {
+				port = Integer.parseInt(parse.getString("-port"));
+			} catch (Exception e) {
+				port = 8090;
+			}
+
+			try {
+				ServletContextHandler servletContext = null;
+
+				servletContext = new ServletContextHandler(ServletContextHandler.SESSIONS);
+				servletContext.setContextPath("/");
+
+				DefaultHandler defaultHandler = new DefaultHandler();
+				defaultHandler.setServeIcon(true);
+
+				ContextHandler defaultContext = new ContextHandler("/favicon.ico");
+				defaultContext.setHandler(defaultHandler);
+
+				ServletHolder sholder = new ServletHolder(search);
+
+				ServletHandler handler = new ServletHandler();
+				handler.addServletWithMapping(sholder, "/");
+
+				Server server = new Server(port);
+				server.setHandler(handler);
+				server.start();
+				System.out.printf("Server started in %f seconds%n",
+						(double) Duration.between(start, Instant.now()).toMillis() / Duration.ofSeconds(1).toMillis());
+				server.join();
+
+			} catch (Exception e) {
+				System.err.println("Jetty server Did not work");
+			}
+		}
+		
+		if (watcher != null) {
+			// keep the index current until the process is stopped
+			try {
+				watcher.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		if (workQueue != null) {
+			workQueue.shutdown();
+			if (parse.hasFlag("-metrics")) {
+				System.out.printf("Work queue:%n%s%n", workQueue.getMetrics());
+			}
+		}
+		
+		if (parse.hasFlag("-metrics")) {
+			if (builder instanceof PipelinedInvertedIndexBuilder) {
+				System.out.printf("Pipeline:%n%s%n", ((PipelinedInvertedIndexBuilder) builder).getMetrics());
+			}
+			System.out.printf("Stem cache: %s%n", StemCache.ENGLISH);
+		}
+		
 		Duration elapsed = Duration.between(start, Instant.now());
 		double seconds = (double) elapsed.toMillis() / Duration.ofSeconds(1).toMillis();
 		System.out.printf("Elapsed: %f seconds%n", seconds);
 	}
+
+	/**
+	 * Creates a pipelined builder from the value of the -pipeline flag, the
+	 * number of read, parse and index threads separated by commas, such as
+	 * "1,4,1". Counts that are missing or invalid default to one read thread,
+	 * a parse thread per thread and one index thread.
+	 *
+	 * @param counts     value of the flag, or null
+	 * @param index      the index to build
+	 * @param numThreads number of threads
+	 * @return the pipelined builder
+	 */
+	private static PipelinedInvertedIndexBuilder newPipeline(String counts, InvertedIndex index, int numThreads) {
+		int[] threads = { 1, numThreads, 1 };
+		String[] values = counts == null ? new String[0] : counts.split(",");
+		for (int i = 0; i < threads.length && i < values.length; i++) {
+			try {
+				threads[i] = Math.max(Integer.parseInt(values[i].strip()), 1);
+			} catch (NumberFormatException e) {
+				// keep the default
+			}
+		}
+		return new PipelinedInvertedIndexBuilder(index, threads[0], threads[1], threads[2]);
+	}
 }
@@ -0,0 +1,485 @@
+import java.util.ArrayDeque;
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Maintains a pair of associated locks like {@link SimpleReadWriteLock}, but
+ * writers are never starved by a steady stream of readers. Both locks are
+ * reentrant, and a thread holding the write lock may also take the read lock.
+ *
+ * <p>
+ * By default the lock prefers writers: new readers wait while any writer is
+ * waiting, and a writer takes the lock as soon as it is free. If fair, threads
+ * get the lock in the order they asked for it, readers next to each other in
+ * the queue sharing it. Instead of waking every waiting thread on every
+ * unlock, only the threads that can now take the lock are woken.
+ *
+ * <p>
+ * Every lock counts how often it was taken, how often a thread had to wait,
+ * how long threads waited in total and how many threads were waiting at most.
+ *
+ * @see SimpleReadWriteLock
+ * @see TimedLock
+ *
+ * @author alex
+ */
+public class FairReadWriteLock extends SimpleReadWriteLock {
+
+	/** True if threads get the lock in the order they asked for it. */
+	private final boolean fair;
+
+	/** The lock guarding the state below. */
+	private final Object lock;
+
+	/** Read holds of all threads. */
+	private int readers;
+
+	/** Thread holding the write lock, or null. */
+	private Thread writeThread;
+
+	/** Write holds of the writing thread. */
+	private int writers;
+
+	/** Threads waiting, in the order they asked for the lock. */
+	private final ArrayDeque<Waiter> queue;
+
+	/** Number of writers in the queue. */
+	private int waitingWriters;
+
+	/** Read holds of the current thread. */
+	private final ThreadLocal<int[]> readHolds;
+
+	/** Number of times either lock was taken. */
+	private long acquisitions;
+
+	/** Number of times a thread had to wait for either lock. */
+	private long contentions;
+
+	/** Total time threads waited for either lock, in nanoseconds. */
+	private long waitTime;
+
+	/** Largest number of threads waiting at once. */
+	private int maxQueueLength;
+
+	/** The lock used for reading. */
+	private final TimedLock readerLock;
+
+	/** The lock used for writing. */
+	private final TimedLock writerLock;
+
+	/**
+	 * Initializes a new writer-preferring read/write lock.
+	 */
+	public FairReadWriteLock() {
+		this(false);
+	}
+
+	/**
+	 * Initializes a new read/write lock.
+	 *
+	 * @param fair true to give the lock to threads in the order they asked for
+	 *             it, false to prefer writers
+	 */
+	public FairReadWriteLock(boolean fair) {
+		super();
+		this.fair = fair;
+		this.lock = new Object();
+		this.readers = 0;
+		this.writeThread = null;
+		this.writers = 0;
+		this.queue = new ArrayDeque<>();
+		this.waitingWriters = 0;
+		this.readHolds = ThreadLocal.withInitial(() -> new int[1]);
+		this.readerLock = new ReadLock();
+		this.writerLock = new WriteLock();
+	}
+
+	@Override
+	public TimedLock readLock() {
+		return readerLock;
+	}
+
+	@Override
+	public TimedLock writeLock() {
+		return writerLock;
+	}
+
+	/**
+	 * This function check if this lock gives the lock in arrival order.
+	 *
+	 * @return true if fair
+	 */
+	public boolean isFair() {
+		return fair;
+	}
+
+	/**
+	 * This function returns how many times either lock was taken.
+	 *
+	 * @return number of acquisitions
+	 */
+	public long getAcquisitions() {
+		synchronized (lock) {
+			return acquisitions;
+		}
+	}
+
+	/**
+	 * This function returns how many times a thread had to wait for either lock.
+	 *
+	 * @return number of contended acquisitions
+	 */
+	public long getContentions() {
+		synchronized (lock) {
+			return contentions;
+		}
+	}
+
+	/**
+	 * This function returns how long threads waited for either lock in total.
+	 *
+	 * @param unit to return the time in
+	 * @return total wait time
+	 */
+	public long getWaitTime(TimeUnit unit) {
+		synchronized (lock) {
+			return unit.convert(waitTime, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * This function returns how many threads are waiting right now.
+	 *
+	 * @return current queue length
+	 */
+	public int getQueueLength() {
+		synchronized (lock) {
+			return queue.size();
+		}
+	}
+
+	/**
+	 * This function returns the largest number of threads that waited at once.
+	 *
+	 * @return maximum queue length
+	 */
+	public int getMaxQueueLength() {
+		synchronized (lock) {
+			return maxQueueLength;
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (lock) {
+			return String.format("%s[%s, readers=%d, writer=%s, acquisitions=%d, contentions=%d, waitTime=%dms, queue=%d, maxQueue=%d]",
+					getClass().getSimpleName(), fair ? "fair" : "writer-preferring", readers,
+					writeThread == null ? "none" : writeThread.getName(), acquisitions, contentions,
+					TimeUnit.NANOSECONDS.toMillis(waitTime), queue.size(), maxQueueLength);
+		}
+	}
+
+	/**
+	 * A thread waiting in the queue.
+	 */
+	private static class Waiter {
+
+		/** The waiting thread. */
+		private final Thread thread;
+
+		/** True if waiting for the write lock. */
+		private final boolean write;
+
+		/**
+		 * Initializes a waiter for the current thread.
+		 *
+		 * @param write true if waiting for the write lock
+		 */
+		public Waiter(boolean write) {
+			this.thread = Thread.currentThread();
+			this.write = write;
+		}
+	}
+
+	/**
+	 * This function check if a thread may take a lock now. Must be called while
+	 * holding the state lock.
+	 *
+	 * @param write  true for the write lock
+	 * @param waiter the thread's place in the queue, or null if not queued
+	 * @return true if the lock may be taken
+	 */
+	private boolean canAcquire(boolean write, Waiter waiter) {
+		if (writeThread != null) {
+			return false;
+		}
+
+		if (write) {
+			if (readers > 0) {
+				return false;
+			}
+			return !fair || (waiter == null ? queue.isEmpty() : queue.peekFirst() == waiter);
+		}
+
+		if (!fair) {
+			return waitingWriters == 0;
+		}
+
+		for (Waiter ahead : queue) {
+			if (ahead == waiter) {
+				return true;
+			}
+			if (ahead.write) {
+				return false;
+			}
+		}
+		return waiter == null;
+	}
+
+	/**
+	 * This function wakes the waiting threads that may take a lock now. Must be
+	 * called while holding the state lock.
+	 */
+	private void wakeWaiters() {
+		for (Waiter waiter : queue) {
+			if (canAcquire(waiter.write, waiter)) {
+				LockSupport.unpark(waiter.thread);
+				if (waiter.write) {
+					return;
+				}
+			} else if (fair || waiter.write) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * This function takes a lock, waiting in the queue if needed.
+	 *
+	 * @param write         true for the write lock
+	 * @param nanos         longest time to wait, or negative to wait forever
+	 * @param interruptible true to stop waiting when interrupted
+	 * @return true if the lock was taken
+	 * @throws InterruptedException if interruptible and interrupted
+	 */
+	private boolean acquire(boolean write, long nanos, boolean interruptible) throws InterruptedException {
+		Thread current = Thread.currentThread();
+		int[] holds = readHolds.get();
+		Waiter waiter;
+		long start;
+
+		synchronized (lock) {
+			if (write ? writeThread == current : writeThread == current || holds[0] > 0) {
+				grant(write, current, holds);
+				return true;
+			}
+
+			if (canAcquire(write, null)) {
+				grant(write, current, holds);
+				return true;
+			}
+
+			if (nanos == 0) {
+				return false;
+			}
+
+			waiter = new Waiter(write);
+			queue.addLast(waiter);
+			if (write) {
+				waitingWriters++;
+			}
+			contentions++;
+			maxQueueLength = Math.max(maxQueueLength, queue.size());
+			start = System.nanoTime();
+		}
+
+		boolean interrupted = false;
+		try {
+			while (true) {
+				synchronized (lock) {
+					long waited = System.nanoTime() - start;
+					if (canAcquire(write, waiter)) {
+						leave(waiter, waited);
+						grant(write, current, holds);
+						wakeWaiters();
+						return true;
+					}
+					if (nanos >= 0 && waited >= nanos) {
+						leave(waiter, waited);
+						wakeWaiters();
+						return false;
+					}
+				}
+
+				if (nanos < 0) {
+					LockSupport.park(this);
+				} else {
+					LockSupport.parkNanos(this, nanos - (System.nanoTime() - start));
+				}
+
+				if (Thread.interrupted()) {
+					if (interruptible) {
+						synchronized (lock) {
+							leave(waiter, System.nanoTime() - start);
+							wakeWaiters();
+						}
+						throw new InterruptedException();
+					}
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				current.interrupt();
+			}
+		}
+	}
+
+	/**
+	 * This function removes a waiter from the queue. Must be called while
+	 * holding the state lock.
+	 *
+	 * @param waiter to remove
+	 * @param waited how long it waited, in nanoseconds
+	 */
+	private void leave(Waiter waiter, long waited) {
+		queue.remove(waiter);
+		if (waiter.write) {
+			waitingWriters--;
+		}
+		waitTime += waited;
+	}
+
+	/**
+	 * This function records a lock as taken. Must be called while holding the
+	 * state lock.
+	 *
+	 * @param write   true for the write lock
+	 * @param current the thread taking it
+	 * @param holds   read holds of the thread
+	 */
+	private void grant(boolean write, Thread current, int[] holds) {
+		if (write) {
+			writeThread = current;
+			writers++;
+		} else {
+			readers++;
+			holds[0]++;
+		}
+		acquisitions++;
+	}
+
+	/**
+	 * Used to maintain simultaneous read operations.
+	 */
+	private class ReadLock implements TimedLock {
+
+		/**
+		 * Will wait until there are no active or, unless the thread already reads,
+		 * waiting writers ahead of it, and then will increase the number of active
+		 * readers. The interrupt status is kept if interrupted while waiting.
+		 */
+		@Override
+		public void lock() {
+			try {
+				acquire(false, -1, false);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public boolean tryLock() {
+			try {
+				return acquire(false, 0, false);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		@Override
+		public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+			return acquire(false, Math.max(unit.toNanos(timeout), 0), true);
+		}
+
+		/**
+		 * Will decrease the number of active readers, and wake the waiting threads
+		 * that can now take a lock.
+		 *
+		 * @throws ConcurrentModificationException if the thread does not hold the
+		 *                                         read lock
+		 */
+		@Override
+		public void unlock() throws ConcurrentModificationException {
+			int[] holds = readHolds.get();
+			synchronized (lock) {
+				if (holds[0] == 0) {
+					throw new ConcurrentModificationException("Read lock is not held by this thread.");
+				}
+				holds[0]--;
+				readers--;
+				if (readers == 0) {
+					wakeWaiters();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Used to maintain exclusive write operations.
+	 */
+	private class WriteLock implements TimedLock {
+
+		/**
+		 * Will wait until there are no active readers or writers, and then will
+		 * increase the number of active writers and update which thread holds the
+		 * write lock. The interrupt status is kept if interrupted while waiting.
+		 */
+		@Override
+		public void lock() {
+			try {
+				acquire(true, -1, false);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public boolean tryLock() {
+			try {
+				return acquire(true, 0, false);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		@Override
+		public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+			return acquire(true, Math.max(unit.toNanos(timeout), 0), true);
+		}
+
+		/**
+		 * Will decrease the number of active writers, and wake the waiting threads
+		 * that can now take a lock once the write lock is free.
+		 *
+		 * @throws ConcurrentModificationException if the thread does not hold the
+		 *                                         write lock
+		 */
+		@Override
+		public void unlock() throws ConcurrentModificationException {
+			synchronized (lock) {
+				if (!sameThread(writeThread)) {
+					throw new ConcurrentModificationException("Write lock is not held by this thread.");
+				}
+				writers--;
+				if (writers == 0) {
+					writeThread = null;
+					wakeWaiters();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,399 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * This is the list of files an index was built from, with the size, last
+ * modified time and SHA-256 hash of each, stored next to the index segment so
+ * a later build only reads the files that were added or changed since, see
+ * {@link InvertedIndexBuilder#updatePath(Path, FileManifest)}. Comparing the
+ * files with the manifest does not change it: the changes found are committed
+ * separately, once the index holding them is updated and written, so a build
+ * that fails halfway leaves the manifest describing the old index.
+ *
+ * A file is hashed only when its size or modified time changed, so checking an
+ * unchanged tree reads no file contents, and a file that was only touched is
+ * not indexed again. The manifest is a UTF-8 text file of one line per file:
+ * <pre>
+ * size TAB modified millis TAB hash TAB path
+ * </pre>
+ * The path is last, so it may hold any character but a line break.
+ *
+ * @author alex
+ */
+public class FileManifest {
+
+	/**
+	 * File name extension of a manifest next to its segment.
+	 */
+	public static final String EXTENSION = ".manifest";
+
+	/**
+	 * Size of the buffer files are hashed through.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Location of each file to what was recorded of it.
+	 */
+	private final TreeMap<String, Entry> entries;
+
+	/**
+	 * This is constructor for an empty manifest, so every file is new.
+	 */
+	public FileManifest() {
+		this.entries = new TreeMap<>();
+	}
+
+	/**
+	 * This function returns where the manifest of a segment is stored.
+	 *
+	 * @param segment the segment file
+	 * @return the manifest file next to it
+	 */
+	public static Path pathOf(Path segment) {
+		return segment.resolveSibling(segment.getFileName() + EXTENSION);
+	}
+
+	/**
+	 * This function reads a manifest written by {@link #write(Path)}.
+	 *
+	 * @param path the manifest file
+	 * @return the manifest
+	 * @throws IOException if the file cannot be read or is not a manifest
+	 */
+	public static FileManifest read(Path path) throws IOException {
+		FileManifest manifest = new FileManifest();
+		for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+			if (line.isEmpty()) {
+				continue;
+			}
+			String[] fields = line.split("\t", 4);
+			if (fields.length != 4) {
+				throw new IOException("Invalid manifest line: " + line);
+			}
+			try {
+				manifest.entries.put(fields[3],
+						new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid manifest line: " + line, e);
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * This function writes the manifest to a temporary file and moves it over
+	 * the old one, so a build that fails halfway never leaves half a manifest.
+	 *
+	 * @param path the manifest file
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(Path path) throws IOException {
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				Entry file = entry.getValue();
+				writer.write(file.size + "\t" + file.modified + "\t" + file.hash + "\t" + entry.getKey());
+				writer.newLine();
+			}
+		}
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * This function compares the files found now with the manifest, without
+	 * changing it. A file that can not be read is left as it was recorded, so
+	 * it is compared again next time, and a file that vanished while being
+	 * compared counts as deleted.
+	 *
+	 * @param files the text files found now
+	 * @return files added, modified and deleted since the manifest was made
+	 */
+	public Changes diff(Collection<Path> files) {
+		Changes changes = new Changes();
+		Set<String> found = new HashSet<>();
+
+		for (Path file : files) {
+			String location = file.toString();
+			if (!found.add(location)) {
+				continue;
+			}
+
+			Entry old = entries.get(location);
+			try {
+				long size = Files.size(file);
+				long modified = Files.getLastModifiedTime(file).toMillis();
+				if (old != null && old.size == size && old.modified == modified) {
+					continue;
+				}
+
+				String hash = hash(file);
+				changes.entries.put(location, new Entry(size, modified, hash));
+				if (old == null) {
+					changes.added.add(location);
+				} else if (!old.hash.equals(hash)) {
+					changes.modified.add(location);
+				}
+			} catch (NoSuchFileException e) {
+				found.remove(location);
+			} catch (IOException e) {
+				// compared again next time
+			}
+		}
+
+		for (String location : entries.keySet()) {
+			if (!found.contains(location)) {
+				changes.deleted.add(location);
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * This function records changes found by {@link #diff(Collection)}, once
+	 * the index is updated with them, so the manifest describes the files the
+	 * updated index is built from. Files left out of the index should be
+	 * excluded from the changes first, see {@link Changes#exclude(Collection)}.
+	 *
+	 * @param changes the changes the index was updated with
+	 */
+	public void commit(Changes changes) {
+		entries.putAll(changes.entries);
+		for (String location : changes.deleted) {
+			entries.remove(location);
+		}
+	}
+
+	/**
+	 * This function returns how many files are in the manifest.
+	 *
+	 * @return number of files
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * This function computes the SHA-256 hash of a file.
+	 *
+	 * @param file to hash
+	 * @return the hash in hexadecimal
+	 * @throws IOException if the file cannot be read
+	 */
+	private static String hash(Path file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available.", e);
+		}
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * This is what the manifest records of a file.
+	 */
+	private static class Entry {
+
+		/**
+		 * Size of the file in bytes.
+		 */
+		private final long size;
+
+		/**
+		 * Last modified time of the file in milliseconds.
+		 */
+		private final long modified;
+
+		/**
+		 * SHA-256 hash of the file in hexadecimal.
+		 */
+		private final String hash;
+
+		/**
+		 * This is constructor for the entry.
+		 *
+		 * @param size     of the file
+		 * @param modified time of the file
+		 * @param hash     of the file
+		 */
+		public Entry(long size, long modified, String hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * This is the files added, modified and deleted since a manifest was made,
+	 * by location, with what to record of every file that is still there.
+	 */
+	public static class Changes {
+
+		/**
+		 * Location of each file to record to what is recorded of it, including
+		 * files that were only touched.
+		 */
+		private final Map<String, Entry> entries;
+
+		/**
+		 * Files not in the manifest.
+		 */
+		private final List<String> added;
+
+		/**
+		 * Files whose contents changed.
+		 */
+		private final List<String> modified;
+
+		/**
+		 * Files in the manifest that are gone.
+		 */
+		private final List<String> deleted;
+
+		/**
+		 * Files that changed but could not be indexed.
+		 */
+		private final List<String> failed;
+
+		/**
+		 * This is constructor for no changes.
+		 */
+		private Changes() {
+			this.entries = new HashMap<>();
+			this.added = new ArrayList<>();
+			this.modified = new ArrayList<>();
+			this.deleted = new ArrayList<>();
+			this.failed = new ArrayList<>();
+		}
+
+		/**
+		 * @return unmodifiable list of files added
+		 */
+		public List<String> getAdded() {
+			return Collections.unmodifiableList(added);
+		}
+
+		/**
+		 * @return unmodifiable list of files modified
+		 */
+		public List<String> getModified() {
+			return Collections.unmodifiableList(modified);
+		}
+
+		/**
+		 * @return unmodifiable list of files deleted
+		 */
+		public List<String> getDeleted() {
+			return Collections.unmodifiableList(deleted);
+		}
+
+		/**
+		 * This function returns the files to index again, added or modified.
+		 *
+		 * @return list of files
+		 */
+		public List<Path> getChanged() {
+			List<Path> changed = new ArrayList<>();
+			for (String location : added) {
+				changed.add(Path.of(location));
+			}
+			for (String location : modified) {
+				changed.add(Path.of(location));
+			}
+			return changed;
+		}
+
+		/**
+		 * This function returns the files whose postings must be removed first,
+		 * modified or deleted.
+		 *
+		 * @return list of files
+		 */
+		public List<String> getRemoved() {
+			List<String> removed = new ArrayList<>(modified);
+			removed.addAll(deleted);
+			return removed;
+		}
+
+		/**
+		 * This function leaves out files the index could not be updated with.
+		 * A file that is gone is counted as deleted, since its old postings
+		 * are removed either way. A file that is still there is left out of the
+		 * changes, so the manifest keeps what it recorded of it and the file is
+		 * found changed again next time.
+		 *
+		 * @param failed files that could not be indexed
+		 */
+		public void exclude(Collection<Path> failed) {
+			for (Path file : failed) {
+				String location = file.toString();
+				entries.remove(location);
+				boolean wasAdded = added.remove(location);
+				boolean wasModified = modified.remove(location);
+				if (Files.notExists(file)) {
+					if (wasModified) {
+						deleted.add(location);
+					}
+				} else if (wasAdded || wasModified) {
+					this.failed.add(location);
+				}
+			}
+		}
+
+		/**
+		 * @return unmodifiable list of files that changed but could not be
+		 *         indexed
+		 */
+		public List<String> getFailed() {
+			return Collections.unmodifiableList(failed);
+		}
+
+		/**
+		 * @return true if no file changed
+		 */
+		public boolean isEmpty() {
+			return added.isEmpty() && modified.isEmpty() && deleted.isEmpty();
+		}
+
+		@Override
+		public String toString() {
+			String counts = String.format("%d added, %d modified, %d deleted", added.size(), modified.size(),
+					deleted.size());
+			return failed.isEmpty() ? counts : counts + ", " + failed.size() + " failed";
+		}
+	}
+}
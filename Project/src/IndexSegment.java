@@ -0,0 +1,705 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * This is read-only inverted index backed by a binary segment file that is
+ * memory-mapped instead of parsed, so a saved index can be searched right
+ * after it is opened without re-reading and re-stemming the corpus.
+ *
+ * The segment is laid out as (all numbers are big-endian ints):
+ * <pre>
+ * header:    magic, version, document count, term count,
+ *            documents offset, postings offset, terms offset
+ * documents: word count per document, location offsets (count + 1),
+ *            UTF-8 location bytes
+ * postings:  per term: number of documents, then per document:
+ *            document ID, number of positions, encoded length,
+ *            delta and variable-byte encoded positions
+ * terms:     postings offset per term, word offsets (count + 1),
+ *            UTF-8 word bytes, words sorted in {@link String} order
+ * </pre>
+ * Documents are numbered in sorted location order, so both words and
+ * locations can be binary searched. Only absolute reads are made on the
+ * mapped buffer, so a segment is safe to search from many threads. A segment
+ * must be smaller than 2 GB.
+ *
+ * @author alex
+ */
+public class IndexSegment extends InvertedIndex {
+
+	/**
+	 * Magic number at the start of every segment file.
+	 */
+	private static final int MAGIC = 0x53454731;
+
+	/**
+	 * Version of the segment format.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Size of the header in bytes.
+	 */
+	private static final int HEADER = 7 * Integer.BYTES;
+
+	/**
+	 * The file this segment was opened from.
+	 */
+	private final Path path;
+
+	/**
+	 * The mapped segment file.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * Number of documents.
+	 */
+	private final int documentCount;
+
+	/**
+	 * Number of terms.
+	 */
+	private final int termCount;
+
+	/**
+	 * Offset of the document word counts.
+	 */
+	private final int countsOffset;
+
+	/**
+	 * Offset of the location offsets table.
+	 */
+	private final int locationsOffset;
+
+	/**
+	 * Offset of the location bytes.
+	 */
+	private final int locationBytesOffset;
+
+	/**
+	 * Offset of the word offsets table.
+	 */
+	private final int wordsOffset;
+
+	/**
+	 * Offset of the postings offsets table.
+	 */
+	private final int termPostingsOffset;
+
+	/**
+	 * Offset of the word bytes.
+	 */
+	private final int wordBytesOffset;
+
+	/**
+	 * Sorted map of every location to its word count, built on first use.
+	 */
+	private volatile Map<String, Integer> counts;
+
+	/**
+	 * This is constructor for a segment over a mapped buffer.
+	 *
+	 * @param path   the file the buffer was mapped from
+	 * @param buffer the mapped segment
+	 * @throws IOException if the buffer is not a segment
+	 */
+	private IndexSegment(Path path, ByteBuffer buffer) throws IOException {
+		super();
+		this.path = path;
+		this.buffer = buffer;
+
+		if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not an index segment: " + path);
+		}
+
+		this.documentCount = buffer.getInt(8);
+		this.termCount = buffer.getInt(12);
+
+		this.countsOffset = buffer.getInt(16);
+		this.locationsOffset = countsOffset + documentCount * Integer.BYTES;
+		this.locationBytesOffset = locationsOffset + (documentCount + 1) * Integer.BYTES;
+
+		this.termPostingsOffset = buffer.getInt(24);
+		this.wordsOffset = termPostingsOffset + termCount * Integer.BYTES;
+		this.wordBytesOffset = wordsOffset + (termCount + 1) * Integer.BYTES;
+		this.counts = null;
+	}
+
+	/**
+	 * This function opens a segment file by memory-mapping it.
+	 *
+	 * @param path of the segment file
+	 * @return the opened segment
+	 * @throws IOException if the file cannot be mapped or is not a segment
+	 */
+	public static IndexSegment open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return new IndexSegment(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * This function writes an inverted index as a segment file.
+	 *
+	 * @param terms     term dictionary of the index
+	 * @param documents document table of the index
+	 * @param postings  postings of the index, indexed by term ID
+	 * @param path      of the segment file to write
+	 * @throws IOException if unable to write the file
+	 */
+	public static void write(TermDictionary terms, DocumentTable documents, List<TermPostings> postings, Path path)
+			throws IOException {
+		int[] termOffsets = new int[terms.size()];
+		int documentsOffset;
+		int postingsOffset;
+		int termsOffset;
+
+		Integer[] sorted = new Integer[documents.size()];
+		for (int document = 0; document < sorted.length; document++) {
+			sorted[document] = document;
+		}
+		Arrays.sort(sorted, Comparator.comparing(documents::getLocation));
+
+		int[] remap = new int[sorted.length];
+		for (int rank = 0; rank < sorted.length; rank++) {
+			remap[sorted[rank]] = rank;
+		}
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+			for (int i = 0; i < HEADER; i += Integer.BYTES) {
+				out.writeInt(0);
+			}
+
+			documentsOffset = offset(out, path);
+			byte[][] locations = new byte[sorted.length][];
+			for (int rank = 0; rank < sorted.length; rank++) {
+				out.writeInt(documents.getCount(sorted[rank]));
+				locations[rank] = documents.getLocation(sorted[rank]).getBytes(StandardCharsets.UTF_8);
+			}
+			writeStrings(out, locations);
+
+			postingsOffset = offset(out, path);
+			int rank = 0;
+			for (Map.Entry<String, Integer> entry : terms.getIds().entrySet()) {
+				termOffsets[rank++] = offset(out, path);
+				TermPostings locationPostings = postings.get(entry.getValue());
+				out.writeInt(locationPostings.size());
+				for (int i = 0; i < locationPostings.size(); i++) {
+					PostingList positions = locationPostings.getPositions(i);
+					byte[] encoded = positions.encode();
+					out.writeInt(remap[locationPostings.getDocument(i)]);
+					out.writeInt(positions.size());
+					out.writeInt(encoded.length);
+					out.write(encoded);
+				}
+			}
+
+			termsOffset = offset(out, path);
+			for (int termOffset : termOffsets) {
+				out.writeInt(termOffset);
+			}
+			byte[][] words = new byte[termOffsets.length][];
+			rank = 0;
+			for (String word : terms.getIds().keySet()) {
+				words[rank++] = word.getBytes(StandardCharsets.UTF_8);
+			}
+			writeStrings(out, words);
+			offset(out, path);
+		}
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			header.putInt(MAGIC).putInt(VERSION).putInt(documents.size()).putInt(terms.size());
+			header.putInt(documentsOffset).putInt(postingsOffset).putInt(termsOffset);
+			header.flip();
+			channel.write(header, 0);
+		}
+	}
+
+	/**
+	 * This function returns the size written so far, the offset of whatever is
+	 * written next. The size of a data stream stops at the largest int, so a
+	 * segment of 2 GB or more is rejected and the file deleted instead of
+	 * writing offsets that wrapped around.
+	 *
+	 * @param out  stream writing the segment
+	 * @param path of the segment file
+	 * @return offset of the next byte
+	 * @throws IOException if the segment is too large
+	 */
+	private static int offset(DataOutputStream out, Path path) throws IOException {
+		int size = out.size();
+		if (size == Integer.MAX_VALUE) {
+			out.close();
+			Files.deleteIfExists(path);
+			throw new IOException("Index segment would be 2 GB or larger: " + path);
+		}
+		return size;
+	}
+
+	/**
+	 * This function writes a table of string offsets followed by the string
+	 * bytes.
+	 *
+	 * @param out     stream to write to
+	 * @param strings UTF-8 bytes of each string
+	 * @throws IOException if unable to write
+	 */
+	private static void writeStrings(DataOutputStream out, byte[][] strings) throws IOException {
+		out.writeInt(0);
+		int offset = 0;
+		for (byte[] string : strings) {
+			offset += string.length;
+			out.writeInt(offset);
+		}
+		for (byte[] string : strings) {
+			out.write(string);
+		}
+	}
+
+	/**
+	 * This function reads a UTF-8 string out of the segment.
+	 *
+	 * @param table offset of the string offsets table
+	 * @param bytes offset of the string bytes
+	 * @param id    of the string
+	 * @return the string
+	 */
+	private String readString(int table, int bytes, int id) {
+		int start = buffer.getInt(table + id * Integer.BYTES);
+		int end = buffer.getInt(table + (id + 1) * Integer.BYTES);
+		byte[] data = new byte[end - start];
+		buffer.duplicate().position(bytes + start).get(data);
+		return new String(data, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * This function returns the word with the given rank.
+	 *
+	 * @param term rank of the word in sorted order
+	 * @return the word
+	 */
+	private String getWord(int term) {
+		return readString(wordsOffset, wordBytesOffset, term);
+	}
+
+	/**
+	 * This function returns the location of a document.
+	 *
+	 * @param document ID of the location
+	 * @return the location
+	 */
+	private String getLocation(int document) {
+		return readString(locationsOffset, locationBytesOffset, document);
+	}
+
+	/**
+	 * This function returns the word count of a document.
+	 *
+	 * @param document ID of the location
+	 * @return word count
+	 */
+	private int getCount(int document) {
+		return buffer.getInt(countsOffset + document * Integer.BYTES);
+	}
+
+	/**
+	 * This function returns the offset of the postings of a term.
+	 *
+	 * @param term rank of the word
+	 * @return offset of the postings
+	 */
+	private int getPostings(int term) {
+		return buffer.getInt(termPostingsOffset + term * Integer.BYTES);
+	}
+
+	/**
+	 * This function binary searches the sorted words.
+	 *
+	 * @param word to look for
+	 * @return rank of the word if found, otherwise (-(insertion point) - 1)
+	 */
+	private int find(String word) {
+		int low = 0;
+		int high = termCount - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compare = getWord(middle).compareTo(word);
+
+			if (compare < 0) {
+				low = middle + 1;
+			} else if (compare > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * This function binary searches the sorted words for one end of the range of
+	 * words starting with a prefix.
+	 *
+	 * @param prefix to look for
+	 * @param after  false to find the first word starting with or after the
+	 *               prefix, true to find the first word after every word
+	 *               starting with the prefix
+	 * @return rank of the bound, or the term count if there is none
+	 *
+	 * @see PrefixDictionary#comparePrefix(String, String)
+	 */
+	private int bound(String prefix, boolean after) {
+		int low = 0;
+		int high = termCount;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			int compare = PrefixDictionary.comparePrefix(getWord(middle), prefix);
+
+			if (after ? compare > 0 : compare >= 0) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * This function finds the document ID of a location.
+	 *
+	 * @param location to look for
+	 * @return document ID, or -1 if not found
+	 */
+	private int findDocument(String location) {
+		int low = 0;
+		int high = documentCount - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compare = getLocation(middle).compareTo(location);
+
+			if (compare < 0) {
+				low = middle + 1;
+			} else if (compare > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * This function decodes the positions of a word in a location.
+	 *
+	 * @param word     to look up
+	 * @param location to look up
+	 * @return posting list, or null if not found
+	 */
+	private PostingList get(String word, String location) {
+		int term = find(word);
+		int document = findDocument(location);
+
+		if (term < 0 || document < 0) {
+			return null;
+		}
+
+		int offset = getPostings(term);
+		int size = buffer.getInt(offset);
+		offset += Integer.BYTES;
+
+		for (int i = 0; i < size; i++) {
+			int length = buffer.getInt(offset + 2 * Integer.BYTES);
+			if (buffer.getInt(offset) == document) {
+				byte[] encoded = new byte[length];
+				buffer.duplicate().position(offset + 3 * Integer.BYTES).get(encoded);
+				return PostingList.decode(encoded, buffer.getInt(offset + Integer.BYTES));
+			}
+			offset += 3 * Integer.BYTES + length;
+		}
+		return null;
+	}
+
+	/**
+	 * This function builds a sorted map of location to positions for a word.
+	 *
+	 * @param term rank of the word
+	 * @return sorted map of location to positions
+	 */
+	private TreeMap<String, PostingList> getLocationMap(int term) {
+		TreeMap<String, PostingList> map = new TreeMap<>();
+		int offset = getPostings(term);
+		int size = buffer.getInt(offset);
+		offset += Integer.BYTES;
+
+		for (int i = 0; i < size; i++) {
+			int length = buffer.getInt(offset + 2 * Integer.BYTES);
+			byte[] encoded = new byte[length];
+			buffer.duplicate().position(offset + 3 * Integer.BYTES).get(encoded);
+			map.put(getLocation(buffer.getInt(offset)), PostingList.decode(encoded, buffer.getInt(offset + Integer.BYTES)));
+			offset += 3 * Integer.BYTES + length;
+		}
+		return map;
+	}
+
+	/**
+	 * This function adds the number of positions of every document a term is
+	 * found in to the running matches.
+	 *
+	 * @param term    rank of the word
+	 * @param matches to add to
+	 */
+	private void searchHelper(int term, Matches matches) {
+		int offset = getPostings(term);
+		int size = buffer.getInt(offset);
+		offset += Integer.BYTES;
+
+		for (int i = 0; i < size; i++) {
+			matches.add(buffer.getInt(offset), buffer.getInt(offset + Integer.BYTES));
+			offset += 3 * Integer.BYTES + buffer.getInt(offset + 2 * Integer.BYTES);
+		}
+	}
+
+	/**
+	 * This function counts the positions of every document matching the
+	 * queries exactly.
+	 *
+	 * @param queries to search
+	 * @return matches of the search
+	 */
+	private Matches exactMatches(Collection<String> queries) {
+		Matches matches = new Matches(documentCount);
+
+		for (String query : queries) {
+			int term = find(query);
+			if (term >= 0) {
+				searchHelper(term, matches);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * This function counts the positions of every document with a word starting
+	 * with the queries. Matching words are a contiguous range of the sorted
+	 * terms.
+	 *
+	 * @param queries to search
+	 * @return matches of the search
+	 */
+	private Matches partialMatches(Collection<String> queries) {
+		Matches matches = new Matches(documentCount);
+
+		for (String query : queries) {
+			int last = bound(query, true);
+			for (int term = bound(query, false); term < last; term++) {
+				searchHelper(term, matches);
+			}
+		}
+		return matches;
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(Collection<String> queries) {
+		ArrayList<SearchResult> results = getResults(exactMatches(queries), this::getCount, this::getLocation);
+		Collections.sort(results);
+		return results;
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(Collection<String> queries, int limit) {
+		return topResults(exactMatches(queries), this::getCount, this::getLocation, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(Collection<String> queries) {
+		ArrayList<SearchResult> results = getResults(partialMatches(queries), this::getCount, this::getLocation);
+		Collections.sort(results);
+		return results;
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(Collection<String> queries, int limit) {
+		return topResults(partialMatches(queries), this::getCount, this::getLocation, limit);
+	}
+
+	@Override
+	protected void forEachMatch(Collection<String> queries, boolean exact, ObjIntConsumer<String> visitor) {
+		Matches matches = exact ? exactMatches(queries) : partialMatches(queries);
+		for (int i = 0; i < matches.size(); i++) {
+			int document = matches.getDocument(i);
+			visitor.accept(getLocation(document), matches.getCount(document));
+		}
+	}
+
+	@Override
+	public void addAll(InvertedIndex other) {
+		throw new UnsupportedOperationException("Index segments are read-only.");
+	}
+
+	@Override
+	public void addAll(String path, String[] element) {
+		throw new UnsupportedOperationException("Index segments are read-only.");
+	}
+
+	@Override
+	public void addAll(String path, String[] element, int start) {
+		throw new UnsupportedOperationException("Index segments are read-only.");
+	}
+
+	@Override
+	public boolean addEntry(String element, String path, int position) {
+		throw new UnsupportedOperationException("Index segments are read-only.");
+	}
+
+	@Override
+	public void addAll(String word, String location, PostingList positions) {
+		throw new UnsupportedOperationException("Index segments are read-only.");
+	}
+
+	@Override
+	public boolean removeAll(Collection<String> removed) {
+		throw new UnsupportedOperationException("Index segments are read-only.");
+	}
+
+	@Override
+	public void seal() {
+		// segments are always sealed
+	}
+
+	/**
+	 * This function calls the visitor for every word and location, in sorted
+	 * word order, so a segment can be copied into an index that can change.
+	 */
+	@Override
+	public void forEach(PostingVisitor visitor) {
+		for (int term = 0; term < termCount; term++) {
+			String word = getWord(term);
+			for (Map.Entry<String, PostingList> entry : getLocationMap(term).entrySet()) {
+				visitor.visit(word, entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	@Override
+	public void forEach(String word, PostingVisitor visitor) {
+		int term = find(word);
+		if (term < 0) {
+			return;
+		}
+		for (Map.Entry<String, PostingList> entry : getLocationMap(term).entrySet()) {
+			visitor.visit(word, entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * This function returns the counts of every location, built once since a
+	 * segment never changes.
+	 */
+	@Override
+	public Map<String, Integer> getCounts() {
+		Map<String, Integer> current = counts;
+		if (current == null) {
+			TreeMap<String, Integer> sorted = new TreeMap<>();
+			for (int document = 0; document < documentCount; document++) {
+				sorted.put(getLocation(document), getCount(document));
+			}
+			current = Collections.unmodifiableMap(sorted);
+			counts = current;
+		}
+		return current;
+	}
+
+	@Override
+	public void printIndex(Path outFile) throws IOException {
+		Iterator<Map.Entry<String, TreeMap<String, PostingList>>> iterator = IntStream.range(0, termCount)
+				.mapToObj(term -> Map.entry(getWord(term), getLocationMap(term))).iterator();
+		SimpleJsonWriter.asDoubleNested(iterator, outFile);
+	}
+
+	@Override
+	public void writeSegment(Path outFile) throws IOException {
+		Files.copy(path, outFile, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	@Override
+	public boolean contains(String word) {
+		return find(word) >= 0;
+	}
+
+	@Override
+	public boolean contains(String word, String path) {
+		return get(word, path) != null;
+	}
+
+	@Override
+	public boolean contains(String word, String path, int index) {
+		PostingList positions = get(word, path);
+		return positions != null ? positions.contains(index) : false;
+	}
+
+	@Override
+	public int size() {
+		return termCount;
+	}
+
+	@Override
+	public int size(String word) {
+		int term = find(word);
+		return term >= 0 ? buffer.getInt(getPostings(term)) : 0;
+	}
+
+	@Override
+	public Set<String> getWords() {
+		TreeSet<String> words = new TreeSet<>();
+		for (int term = 0; term < termCount; term++) {
+			words.add(getWord(term));
+		}
+		return Collections.unmodifiableSet(words);
+	}
+
+	@Override
+	public Set<String> getLocations(String word) {
+		int term = find(word);
+		if (term < 0) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(getLocationMap(term).keySet());
+	}
+
+	@Override
+	public Set<Integer> getPositions(String word, String location) {
+		PostingList positions = get(word, location);
+		if (positions == null) {
+			return Collections.emptySet();
+		} else {
+			return Collections.unmodifiableSet(positions);
+		}
+	}
+}
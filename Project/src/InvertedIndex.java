@@ -1,17 +1,23 @@
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ObjIntConsumer;
 
 /**
  * This is inverted index data structure that maps words to a map to locate
- * where the word is in file.
+ * where the word is in file. Words and locations are interned as int IDs, so
+ * each string is stored once and postings are keyed by ID.
  * 
  * @author Alex Kowalczuk
  * @class Software Developer 212 at University of San Francisco (Fall 2019)
@@ -19,53 +25,167 @@ import java.util.TreeSet;
 public class InvertedIndex {
 
 	/**
-	 * This declare TreeMap for my inverted index
+	 * This is term dictionary mapping words to term IDs.
 	 */
-	private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> invertedIndex;
+	private final TermDictionary terms;
 
 	/**
-	 * This declare new TreeMap for my count function
+	 * This is document table mapping locations to document IDs and word counts.
 	 */
-	private final TreeMap<String, Integer> counts;
+	private final DocumentTable documents;
+
+	/**
+	 * This is front-coded copy of the term dictionary used by partial search,
+	 * rebuilt when words were added since it was made.
+	 */
+	private volatile PrefixDictionary prefixes;
+
+	/**
+	 * Result of {@link #lookup(String)} when the prefix dictionary can not be
+	 * used.
+	 */
+	protected static final int STALE = -2;
+
+	/**
+	 * This declare postings for my inverted index, indexed by term ID.
+	 */
+	private final ArrayList<TermPostings> postings;
 
 	/**
 	 * This is constructor to the inverted index class.
 	 */
 	public InvertedIndex() {
-		this.invertedIndex = new TreeMap<>();
-		this.counts = new TreeMap<>();
+		this(new TermDictionary(), new DocumentTable(), new ArrayList<>());
 	}
 
 	/**
-	 * This function adds the array of words.
+	 * This is constructor for an index over the given structures. Indexes that
+	 * keep their postings elsewhere pass null for all of them, and must then
+	 * override every method that uses them, see {@link ThreadSafeInvertedIndex}.
+	 *
+	 * @param terms     term dictionary, or null
+	 * @param documents document table, or null
+	 * @param postings  postings indexed by term ID, or null
+	 */
+	protected InvertedIndex(TermDictionary terms, DocumentTable documents, ArrayList<TermPostings> postings) {
+		this.terms = terms;
+		this.documents = documents;
+		this.postings = postings;
+		this.prefixes = null;
+	}
+
+	/**
+	 * This function adds the array of words. Another plain InvertedIndex is
+	 * merged by remapping its document IDs once, any other index is read
+	 * through {@link #forEach(PostingVisitor)} since it may keep its postings
+	 * elsewhere.
 	 * 
 	 * @param other inverted index
 	 */
 	public void addAll(InvertedIndex other) {
-		for (String key : other.invertedIndex.keySet()) {
-			if (this.invertedIndex.containsKey(key) == false) {
-				this.invertedIndex.put(key, other.invertedIndex.get(key));
-			} else {
-				for (String path : other.invertedIndex.get(key).keySet()) {
-					if (this.invertedIndex.get(key).containsKey(path) == false) {
-						this.invertedIndex.get(key).put(path, other.invertedIndex.get(key).get(path));
-					} else {
-						this.invertedIndex.get(key).get(path).addAll(other.invertedIndex.get(key).get(path));
-					}
-				}
+		if (other.getClass() != InvertedIndex.class) {
+			other.forEach((word, location, positions) -> addPositions(word, location, positions));
+			return;
+		}
+
+		int[] remap = new int[other.documents.size()];
+		for (int document = 0; document < remap.length; document++) {
+			remap[document] = this.documents.add(other.documents.getLocation(document));
+			this.documents.updateCount(remap[document], other.documents.getCount(document));
+		}
+
+		for (int term = 0; term < other.terms.size(); term++) {
+			TermPostings local = other.postings.get(term);
+			TermPostings global = getOrCreate(other.terms.getWord(term));
+
+			for (int i = 0; i < local.size(); i++) {
+				int document = remap[local.getDocument(i)];
+				global.addAll(document, local.getPositions(i));
+				global.get(document).seal();
 			}
 		}
+	}
 
-		for (String path : other.counts.keySet()) {
-			if (this.counts.containsKey(path) == false) {
-				this.counts.put(path, other.counts.get(path));
-			} else {
-				this.counts.put(path, Math.max(this.counts.get(path), other.counts.get(path)));
+	/**
+	 * This function adds every position of a word in a location at once. The
+	 * posting list is stored without copying if the location is new for the
+	 * word, so it must not be changed by the caller afterwards.
+	 * 
+	 * @param word      to add
+	 * @param location  the word is found in
+	 * @param positions of the word in the location
+	 */
+	public void addAll(String word, String location, PostingList positions) {
+		addPositions(word, location, positions);
+	}
+
+	/**
+	 * This function merges and seals the positions of a word in a location.
+	 * 
+	 * @param word      to add
+	 * @param location  the word is found in
+	 * @param positions of the word in the location
+	 */
+	private void addPositions(String word, String location, PostingList positions) {
+		if (positions.isEmpty()) {
+			return;
+		}
+
+		int document = documents.add(location);
+		TermPostings locations = getOrCreate(word);
+		locations.addAll(document, positions);
+		locations.get(document).seal();
+		documents.updateCount(document, positions.last());
+	}
+
+	/**
+	 * This is callback used to walk every word and location of an index.
+	 */
+	@FunctionalInterface
+	public interface PostingVisitor {
 
+		/**
+		 * This function is called once for every word and location.
+		 * 
+		 * @param word      the word
+		 * @param location  the word is found in
+		 * @param positions of the word in the location, must not be changed
+		 */
+		public void visit(String word, String location, PostingList positions);
+	}
+
+	/**
+	 * This function calls the visitor for every word and location, in sorted
+	 * word order.
+	 * 
+	 * @param visitor to call
+	 */
+	public void forEach(PostingVisitor visitor) {
+		for (Map.Entry<String, Integer> entry : terms.getIds().entrySet()) {
+			TermPostings locations = postings.get(entry.getValue());
+			for (int i = 0; i < locations.size(); i++) {
+				visitor.visit(entry.getKey(), documents.getLocation(locations.getDocument(i)), locations.getPositions(i));
 			}
 		}
 	}
 
+	/**
+	 * This function calls the visitor for every location of one word.
+	 * 
+	 * @param word    the word
+	 * @param visitor to call
+	 */
+	public void forEach(String word, PostingVisitor visitor) {
+		int term = terms.get(word);
+		if (term < 0) {
+			return;
+		}
+		TermPostings locations = postings.get(term);
+		for (int i = 0; i < locations.size(); i++) {
+			visitor.visit(word, documents.getLocation(locations.getDocument(i)), locations.getPositions(i));
+		}
+	}
+
 	/**
 	 * This function adds the array of words at once with default start at position
 	 * 1
@@ -100,15 +220,143 @@ public class InvertedIndex {
 	 * @return true if the data structure was modified as a result of add()
 	 */
 	public boolean addEntry(String element, String path, int position) {
-		invertedIndex.putIfAbsent(element, new TreeMap<String, TreeSet<Integer>>());
-		invertedIndex.get(element).putIfAbsent(path, new TreeSet<Integer>());
-		boolean added = this.invertedIndex.get(element).get(path).add(position);
-		this.counts.putIfAbsent(path, position);
+		int document = documents.add(path);
+		boolean added = getOrCreate(element).add(document, position);
+		documents.updateCount(document, position);
+		return added;
+	}
 
-		if (position > counts.get(path)) {
-			this.counts.put(path, position);
+	/**
+	 * This function removes every posting of the given locations, as if they
+	 * were never added. Document and term IDs are kept dense, so the postings
+	 * of every word are renumbered in a single pass, and words left without a
+	 * location are dropped.
+	 *
+	 * @param removed locations to remove
+	 * @return true if the index changed
+	 */
+	public boolean removeAll(Collection<String> removed) {
+		int[] remap = documents.removeAll(removed);
+		if (remap == null) {
+			return false;
 		}
-		return added;
+
+		boolean[] empty = new boolean[postings.size()];
+		boolean any = false;
+		for (int term = 0; term < postings.size(); term++) {
+			TermPostings locations = postings.get(term);
+			if (locations.remap(remap) && locations.size() == 0) {
+				empty[term] = true;
+				any = true;
+			}
+		}
+
+		if (any) {
+			terms.removeAll(empty);
+			int kept = 0;
+			for (int term = 0; term < empty.length; term++) {
+				if (!empty[term]) {
+					postings.set(kept++, postings.get(term));
+				}
+			}
+			postings.subList(kept, postings.size()).clear();
+		}
+		prefixes = null;
+		return true;
+	}
+
+	/**
+	 * This function removes every posting of some locations and adds another
+	 * index in their place, such as the files that changed indexed again.
+	 * Thread-safe indexes make both changes at once where they can, so a
+	 * search never finds a changed location missing.
+	 *
+	 * @param removed locations to remove
+	 * @param added   index to add afterwards
+	 */
+	public void replaceAll(Collection<String> removed, InvertedIndex added) {
+		removeAll(removed);
+		addAll(added);
+	}
+
+	/**
+	 * This function removes every posting of a location.
+	 *
+	 * @param location to remove
+	 * @return true if the index changed
+	 * @see #removeAll(Collection)
+	 */
+	public boolean remove(String location) {
+		return removeAll(Collections.singleton(location));
+	}
+
+	/**
+	 * This function returns the postings of a word, adding the word to the term
+	 * dictionary if it is new.
+	 *
+	 * @param word to look up
+	 * @return postings of the word
+	 */
+	private TermPostings getOrCreate(String word) {
+		int term = terms.add(word);
+		if (term == postings.size()) {
+			postings.add(new TermPostings());
+		}
+		return postings.get(term);
+	}
+
+	/**
+	 * This function returns the postings of a word.
+	 *
+	 * @param word to look up
+	 * @return postings of the word, or null if not found
+	 */
+	private TermPostings get(String word) {
+		int term = terms.get(word);
+		return term < 0 ? null : postings.get(term);
+	}
+
+	/**
+	 * This function returns the positions of a word in a location.
+	 *
+	 * @param word     to look up
+	 * @param location to look up
+	 * @return posting list, or null if not found
+	 */
+	private PostingList get(String word, String location) {
+		TermPostings locations = get(word);
+		int document = documents.get(location);
+		return locations == null || document < 0 ? null : locations.get(document);
+	}
+
+	/**
+	 * This function builds a sorted map of location to positions for a word, used
+	 * when the index is written out.
+	 *
+	 * @param term ID of the word
+	 * @return sorted map of location to positions
+	 */
+	private TreeMap<String, PostingList> getLocationMap(int term) {
+		TreeMap<String, PostingList> map = new TreeMap<>();
+		TermPostings locations = postings.get(term);
+		for (int i = 0; i < locations.size(); i++) {
+			map.put(documents.getLocation(locations.getDocument(i)), locations.getPositions(i));
+		}
+		return map;
+	}
+
+	/**
+	 * This function seals every posting list, so positions that are done being
+	 * added are stored delta and variable-byte encoded. Lists are opened again
+	 * automatically if more positions are added later. The prefix dictionary
+	 * is built too, so lookups can use it until the next write.
+	 */
+	public void seal() {
+		for (TermPostings locations : postings) {
+			locations.seal();
+		}
+		documents.seal();
+		getPrefixes();
 	}
 
 	/**
@@ -117,17 +365,31 @@ public class InvertedIndex {
 	 * @return num of counts which is unmodifiable Map
 	 */
 	public Map<String, Integer> getCounts() {
-		return Collections.unmodifiableMap(counts);
+		return documents.getCounts();
 	}
 
 	/**
 	 * This function print invertedIndex in a Json format to the output file.
+	 * Words are written one at a time, so the whole index is never copied.
 	 * 
 	 * @param outFile that uses SimpleJsonWriter to print out our file
 	 * @throws IOException
 	 */
 	public void printIndex(Path outFile) throws IOException {
-		SimpleJsonWriter.asDoubleNested(invertedIndex, outFile);
+		Iterator<Map.Entry<String, TreeMap<String, PostingList>>> iterator = terms.getIds().entrySet().stream()
+				.map(entry -> Map.entry(entry.getKey(), getLocationMap(entry.getValue()))).iterator();
+		SimpleJsonWriter.asDoubleNested(iterator, outFile);
+	}
+
+	/**
+	 * This function writes invertedIndex as a binary segment file that can be
+	 * opened later with {@link IndexSegment#open(Path)}.
+	 *
+	 * @param outFile the segment file to write
+	 * @throws IOException
+	 */
+	public void writeSegment(Path outFile) throws IOException {
+		IndexSegment.write(terms, documents, postings, outFile);
 	}
 
 	/**
@@ -137,7 +399,29 @@ public class InvertedIndex {
 	 * @return true is is passed
 	 */
 	public boolean contains(String word) {
-		return invertedIndex.containsKey(word);
+		return terms.get(word) >= 0;
+	}
+
+	/**
+	 * This function looks a word up in the prefix dictionary only. The
+	 * dictionary is immutable once built and replaced with a volatile write, so
+	 * this may run while another thread writes the index, as long as the caller
+	 * checks afterwards that no write happened meanwhile.
+	 * 
+	 * @param word to look up
+	 * @return ID of the word, -1 if not found, or {@link #STALE} if the
+	 *         dictionary is not built or out of date
+	 */
+	protected int lookup(String word) {
+		PrefixDictionary current = prefixes;
+		if (current == null || current.size() != terms.size()) {
+			return STALE;
+		}
+		int[] range = current.range(word);
+		if (range[0] < range[1] && current.getWord(range[0]).equals(word)) {
+			return current.getId(range[0]);
+		}
+		return -1;
 	}
 
 	/**
@@ -149,7 +433,7 @@ public class InvertedIndex {
 	 * @return true if has, false if not
 	 */
 	public boolean contains(String word, String path) {
-		return contains(word) ? invertedIndex.get(word).containsKey(path) : false;
+		return get(word, path) != null;
 	}
 
 	/**
@@ -161,7 +445,8 @@ public class InvertedIndex {
 	 * @return true/false
 	 */
 	public boolean contains(String word, String path, int index) {
-		return contains(word, path) ? invertedIndex.get(word).get(path).contains(index) : false;
+		PostingList positions = get(word, path);
+		return positions != null ? positions.contains(index) : false;
 	}
 
 	/**
@@ -170,7 +455,7 @@ public class InvertedIndex {
 	 * @return size of inverted index.
 	 */
 	public int size() {
-		return invertedIndex.size();
+		return terms.size();
 	}
 
 	/**
@@ -180,7 +465,8 @@ public class InvertedIndex {
 	 * @return amount of paths, return 0 if not found
 	 */
 	public int size(String word) {
-		return contains(word) ? invertedIndex.get(word).size() : 0;
+		TermPostings locations = get(word);
+		return locations != null ? locations.size() : 0;
 	}
 
 	/**
@@ -190,7 +476,7 @@ public class InvertedIndex {
 	 * @return unmodifiable set of words.
 	 */
 	public Set<String> getWords() {
-		return Collections.unmodifiableSet(this.invertedIndex.keySet());
+		return terms.getWords();
 	}
 
 	/**
@@ -200,10 +486,15 @@ public class InvertedIndex {
 	 * @return unmodifiable set of word locations.
 	 */
 	public Set<String> getLocations(String word) {
-		if (this.invertedIndex.get(word) == null) {
+		TermPostings locations = get(word);
+		if (locations == null) {
 			return Collections.emptySet();
 		} else {
-			return Collections.unmodifiableSet(this.invertedIndex.get(word).keySet());
+			TreeSet<String> set = new TreeSet<>();
+			for (int i = 0; i < locations.size(); i++) {
+				set.add(documents.getLocation(locations.getDocument(i)));
+			}
+			return Collections.unmodifiableSet(set);
 		}
 	}
 
@@ -216,10 +507,11 @@ public class InvertedIndex {
 	 * @return unmodifiable set of position.
 	 */
 	public Set<Integer> getPositions(String word, String location) {
-		if (this.invertedIndex.get(word).get(location) == null) {
+		PostingList positions = get(word, location);
+		if (positions == null) {
 			return Collections.emptySet();
 		} else {
-			return Collections.unmodifiableSet(this.invertedIndex.get(word).get(location));
+			return Collections.unmodifiableSet(positions);
 		}
 	}
 
@@ -235,6 +527,19 @@ public class InvertedIndex {
 		return exact ? exactSearch(queries) : partialSearch(queries);
 	}
 
+	/**
+	 * This is search function that is calling partial or exact function to make
+	 * search, keeping only the best results.
+	 * 
+	 * @param queries to search
+	 * @param exact   true for exact search, false for partial
+	 * @param limit   maximum number of results to return
+	 * @return best results of exact / partial search
+	 */
+	public ArrayList<SearchResult> search(Collection<String> queries, boolean exact, int limit) {
+		return exact ? exactSearch(queries, limit) : partialSearch(queries, limit);
+	}
+
 	/**
 	 * This function process exact search
 	 * 
@@ -242,18 +547,22 @@ public class InvertedIndex {
 	 * @return results of the search
 	 */
 	public ArrayList<SearchResult> exactSearch(Collection<String> queries) {
-		ArrayList<SearchResult> results = new ArrayList<>();
-		HashMap<String, SearchResult> track = new HashMap<>();
-
-		for (String query : queries) {
-			if (invertedIndex.containsKey(query)) {
-				searchHelper(results, query, track);
-			}
-		}
+		ArrayList<SearchResult> results = getResults(exactMatches(queries), documents::getCount, documents::getLocation);
 		Collections.sort(results);
 		return results;
 	}
 
+	/**
+	 * This function process exact search, keeping only the best results.
+	 * 
+	 * @param queries to search
+	 * @param limit   maximum number of results to return
+	 * @return best results of the search
+	 */
+	public ArrayList<SearchResult> exactSearch(Collection<String> queries, int limit) {
+		return topResults(exactMatches(queries), documents::getCount, documents::getLocation, limit);
+	}
+
 	/**
 	 * This function process partial search
 	 * 
@@ -261,46 +570,262 @@ public class InvertedIndex {
 	 * @return results of the search
 	 */
 	public ArrayList<SearchResult> partialSearch(Collection<String> queries) {
-		ArrayList<SearchResult> results = new ArrayList<>();
-		HashMap<String, SearchResult> track = new HashMap<>();
+		ArrayList<SearchResult> results = getResults(partialMatches(queries), documents::getCount, documents::getLocation);
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * This function process partial search, keeping only the best results.
+	 * 
+	 * @param queries to search
+	 * @param limit   maximum number of results to return
+	 * @return best results of the search
+	 */
+	public ArrayList<SearchResult> partialSearch(Collection<String> queries, int limit) {
+		return topResults(partialMatches(queries), documents::getCount, documents::getLocation, limit);
+	}
+
+	/**
+	 * This function calls the visitor with the number of matching positions of
+	 * every location matching the queries, unscored and in no order, so an index
+	 * split into parts can add up the matches of its parts and score them once.
+	 * 
+	 * @param queries to search
+	 * @param exact   true for exact search, false for partial search
+	 * @param visitor called with the location and its number of matches
+	 */
+	protected void forEachMatch(Collection<String> queries, boolean exact, ObjIntConsumer<String> visitor) {
+		Matches matches = exact ? exactMatches(queries) : partialMatches(queries);
+		for (int i = 0; i < matches.size(); i++) {
+			int document = matches.getDocument(i);
+			visitor.accept(documents.getLocation(document), matches.getCount(document));
+		}
+	}
+
+	/**
+	 * This function counts the matches of every location matching the queries
+	 * exactly.
+	 * 
+	 * @param queries to search
+	 * @return matches of the search
+	 */
+	private Matches exactMatches(Collection<String> queries) {
+		Matches matches = new Matches(documents.size());
 
 		for (String query : queries) {
-			for (String word : this.invertedIndex.tailMap(query).keySet()) {
-				if (word.startsWith(query)) {
-					searchHelper(results, word, track);
-				} else {
-					break;
-				}
+			int term = terms.get(query);
+			if (term >= 0) {
+				searchHelper(matches, term);
 			}
 		}
-		Collections.sort(results);
+		return matches;
+	}
+
+	/**
+	 * This function counts the matches of every location with a word starting
+	 * with the queries.
+	 * 
+	 * @param queries to search
+	 * @return matches of the search
+	 */
+	private Matches partialMatches(Collection<String> queries) {
+		Matches matches = new Matches(documents.size());
+		PrefixDictionary dictionary = getPrefixes();
+
+		for (String query : queries) {
+			int[] range = dictionary.range(query);
+			for (int rank = range[0]; rank < range[1]; rank++) {
+				searchHelper(matches, dictionary.getId(rank));
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * This function returns the prefix dictionary, building it again if words
+	 * were added since it was last built. Words are only added between
+	 * removals, which drop the dictionary, so a size check is enough to tell
+	 * it is current.
+	 * 
+	 * @return prefix dictionary of every word
+	 */
+	private PrefixDictionary getPrefixes() {
+		PrefixDictionary current = prefixes;
+		if (current == null || current.size() != terms.size()) {
+			current = new PrefixDictionary(terms.getIds());
+			prefixes = current;
+		}
+		return current;
+	}
+
+	/**
+	 * This function is a helper method used in search methods, adding the term
+	 * frequency of every location of a word.
+	 * 
+	 * @param matches to add to
+	 * @param term    ID of the word to search.
+	 */
+	private void searchHelper(Matches matches, int term) {
+		TermPostings locations = postings.get(term);
+		for (int i = 0; i < locations.size(); i++) {
+			matches.add(locations.getDocument(i), locations.getFrequency(i));
+		}
+	}
+
+	/**
+	 * This function turns matches into unsorted search results, computing each
+	 * score once from the final count.
+	 * 
+	 * @param matches   of the search
+	 * @param counts    word count of each document ID
+	 * @param locations location of each document ID
+	 * @return unsorted results
+	 */
+	protected static ArrayList<SearchResult> getResults(Matches matches, IntUnaryOperator counts,
+			IntFunction<String> locations) {
+		ArrayList<SearchResult> results = new ArrayList<>(matches.size());
+		for (int i = 0; i < matches.size(); i++) {
+			int document = matches.getDocument(i);
+			int count = matches.getCount(document);
+			results.add(new SearchResult(locations.apply(document), count, (double) count / counts.applyAsInt(document)));
+		}
 		return results;
 	}
 
 	/**
-	 * This function is a helper method used in search methods.
+	 * This function keeps the best results in a bounded heap whose head is the
+	 * worst result kept, so selecting k of n results takes O(n log k) instead of
+	 * sorting all of them. Results are ordered by {@link SearchResult#compareTo},
+	 * and a result object is only created for matches that can enter the heap.
 	 * 
-	 * @param results list of objects.
-	 * @param word    to searched.
-	 * @param track   for updating and track counts and scores.
+	 * @param matches   of the search
+	 * @param counts    word count of each document ID
+	 * @param locations location of each document ID
+	 * @param limit     maximum number of results to keep
+	 * @return sorted best results
 	 */
-	private void searchHelper(ArrayList<SearchResult> results, String word, Map<String, SearchResult> track) {
-		for (String location : this.invertedIndex.get(word).keySet()) {
-			if (track.containsKey(location)) {
-				track.get(location).updateCount(word);
+	protected static ArrayList<SearchResult> topResults(Matches matches, IntUnaryOperator counts,
+			IntFunction<String> locations, int limit) {
+		if (limit <= 0) {
+			return new ArrayList<>();
+		}
+
+		PriorityQueue<SearchResult> heap = new PriorityQueue<>(Math.min(limit, matches.size()) + 1,
+				Collections.reverseOrder());
+
+		for (int i = 0; i < matches.size(); i++) {
+			int document = matches.getDocument(i);
+			int count = matches.getCount(document);
+			double score = (double) count / counts.applyAsInt(document);
+
+			if (heap.size() < limit) {
+				heap.add(new SearchResult(locations.apply(document), count, score));
 			} else {
-				SearchResult result = new SearchResult(location);
-				result.updateCount(word);
-				track.put(location, result);
-				results.add(result);
+				SearchResult worst = heap.peek();
+				if (score > worst.score || (score == worst.score && count >= worst.count)) {
+					SearchResult result = new SearchResult(locations.apply(document), count, score);
+					if (result.compareTo(worst) < 0) {
+						heap.poll();
+						heap.add(result);
+					}
+				}
 			}
 		}
+
+		ArrayList<SearchResult> top = new ArrayList<>(heap);
+		Collections.sort(top);
+		return top;
 	}
 
 	/**
-	 * This function is inner SearchResult class that implements Comparable.
+	 * This is running count of matching positions per document ID, filled in by
+	 * a search before any result is scored.
 	 */
-	public class SearchResult implements Comparable<SearchResult> {
+	protected static class Matches {
+
+		/**
+		 * Matching positions, indexed by document ID.
+		 */
+		private int[] counts;
+
+		/**
+		 * Document IDs with at least one match, in the order they were found.
+		 */
+		private int[] found;
+
+		/**
+		 * Number of document IDs found.
+		 */
+		private int size;
+
+		/**
+		 * This is constructor for the empty matches.
+		 * 
+		 * @param documents expected number of document IDs, the counts grow if a
+		 *                  larger ID is added
+		 */
+		public Matches(int documents) {
+			this.counts = new int[Math.max(documents, 1)];
+			this.found = new int[16];
+			this.size = 0;
+		}
+
+		/**
+		 * This function adds the positions of a word in a document.
+		 * 
+		 * @param document  ID of the location
+		 * @param frequency number of positions of the word
+		 */
+		public void add(int document, int frequency) {
+			if (document >= counts.length) {
+				counts = Arrays.copyOf(counts, Math.max(document + 1, counts.length * 2));
+			}
+			if (counts[document] == 0) {
+				if (size == found.length) {
+					found = Arrays.copyOf(found, size * 2);
+				}
+				found[size++] = document;
+			}
+			counts[document] += frequency;
+		}
+
+		/**
+		 * This function returns how many documents matched.
+		 * 
+		 * @return number of documents
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * This function returns the document ID found at an index.
+		 * 
+		 * @param index between 0 and size
+		 * @return document ID
+		 */
+		public int getDocument(int index) {
+			return found[index];
+		}
+
+		/**
+		 * This function returns the matching positions of a document.
+		 * 
+		 * @param document ID of the location
+		 * @return number of matching positions
+		 */
+		public int getCount(int document) {
+			return counts[document];
+		}
+	}
+
+	/**
+	 * This function is nested SearchResult class that implements Comparable.
+	 * Results are created once a search is done counting, with their final count
+	 * and score.
+	 */
+	public static class SearchResult implements Comparable<SearchResult> {
 
 		/**
 		 * This will hold the location of the search result.
@@ -330,7 +855,8 @@ public class InvertedIndex {
 		}
 
 		/**
-		 * This function is to debug constructor.
+		 * This function is Constructor for SearchResult objects with a final count
+		 * and score.
 		 * 
 		 * @param location set
 		 * @param count    set
@@ -342,16 +868,6 @@ public class InvertedIndex {
 			this.score = score;
 		}
 
-		/**
-		 * This function is to update the count
-		 * 
-		 * @param word to update
-		 */
-		private void updateCount(String word) {
-			this.count += invertedIndex.get(word).get(this.location).size();
-			this.score = (double) this.count / counts.get(this.location);
-		}
-
 		/**
 		 * This function is getter for the count data member.
 		 * 
@@ -1,10 +1,10 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import opennlp.tools.stemmer.Stemmer;
@@ -24,6 +24,11 @@ public class InvertedIndexBuilder {
 	 */
 	private final InvertedIndex index;
 
+	/**
+	 * Files the last build could not index, added to by any thread.
+	 */
+	private final Set<Path> failed;
+
 	/**
 	 * This is default SnowballStemmer algorithm.
 	 */
@@ -36,6 +41,7 @@ public class InvertedIndexBuilder {
 	 */
 	public InvertedIndexBuilder(InvertedIndex index) {
 		this.index = index;
+		this.failed = ConcurrentHashMap.newKeySet();
 	}
 
 	/**
@@ -61,40 +67,147 @@ public class InvertedIndexBuilder {
 	}
 
 	/**
-	 * This function is calling addPath function on files from directory
+	 * This function is calling addPath function on files from directory, and
+	 * seals the posting lists once every file is added.
 	 * 
 	 * @param path starting path that function check.
 	 * @throws IOException
 	 */
 	public void traversePath(Path path) throws IOException {
-		for (Path thisPath : getTextFiles(path)) {
-			addPath(thisPath);
+		addFiles(getTextFiles(path));
+	}
+
+	/**
+	 * This function brings the inverted index up to date with the files under
+	 * a path, only reading the files added or modified since the manifest was
+	 * made. Postings of modified and deleted files are removed first, then the
+	 * added and modified files are indexed again, so the index ends up the same
+	 * as one built from scratch. The manifest is not changed: the changes
+	 * returned leave out the files that could not be indexed, and should be
+	 * committed to the manifest once the updated index is written, see
+	 * {@link FileManifest#commit(FileManifest.Changes)}.
+	 * 
+	 * @param path     starting path that function check.
+	 * @param manifest of the files the index was built from
+	 * @return the files added, modified and deleted
+	 * @throws IOException
+	 */
+	public FileManifest.Changes updatePath(Path path, FileManifest manifest) throws IOException {
+		FileManifest.Changes changes = manifest.diff(getTextFiles(path));
+		if (!changes.isEmpty()) {
+			index.removeAll(changes.getRemoved());
+			addFiles(changes.getChanged());
+			changes.exclude(getFailed());
+		}
+		return changes;
+	}
+
+	/**
+	 * This function builds every file into a local index that is added to the
+	 * inverted index only once the whole file is read, and seals the posting
+	 * lists once every file is added. A file that can not be read is left out
+	 * whole and reported by {@link #getFailed()}, and the other files are still
+	 * added.
+	 * 
+	 * @param files text files to add
+	 * @throws IOException
+	 */
+	public void addFiles(List<Path> files) throws IOException {
+		clearFailed();
+		for (Path thisPath : files) {
+			try {
+				InvertedIndex local = new InvertedIndex();
+				addPath(thisPath, local);
+				index.addAll(local);
+			} catch (IOException | RuntimeException e) {
+				failed(thisPath);
+			}
 		}
+		index.seal();
+	}
+
+	/**
+	 * This function returns the files the last call of {@link #addFiles(List)}
+	 * could not index. These are left out of the index whole, never in part.
+	 * 
+	 * @return unmodifiable set of files, empty if every file was indexed
+	 */
+	public Set<Path> getFailed() {
+		return Set.copyOf(failed);
+	}
+
+	/**
+	 * This function reports a file that could not be indexed, so a build can go
+	 * on with the other files.
+	 * 
+	 * @param path the file
+	 */
+	protected void failed(Path path) {
+		System.out.println("Problem encountered while adding file: " + path.toString());
+		failed.add(path);
+	}
+
+	/**
+	 * This function forgets the files a previous build could not index, called
+	 * when a build starts.
+	 */
+	protected void clearFailed() {
+		failed.clear();
 	}
 
 	/**
-	 * This function to add the file to inverted index strusture
+	 * This function to add the file to inverted index strusture, streaming it so
+	 * no line or file is ever held in memory whole.
 	 * 
 	 * @param inputFile need to be added
 	 * @param index     of our inverted index
 	 * @throws IOException
 	 */
 	public static void addPath(Path inputFile, InvertedIndex index) throws IOException {
-		Stemmer stemmer = new SnowballStemmer(DEFAULT);
-		try (BufferedReader reader = Files.newBufferedReader(inputFile, StandardCharsets.UTF_8);) {
-			String line = reader.readLine();
-			String location = inputFile.toString();
-			int i = 0;
-
-			while (line != null) {
-				String[] tokens = TextParser.parser(line);
-				for (String words : tokens) {
-					String data = stemmer.stem(words).toString();
-					index.addEntry(data, location, ++i);
-				}
-				line = reader.readLine();
-			}
+		try (TextFileTokenizer tokens = new TextFileTokenizer(inputFile);) {
+			addTokens(tokens, inputFile.toString(), index);
+		}
+	}
+
+	/**
+	 * This function adds part of a file to the inverted index, between two
+	 * boundaries found by {@link TextFileTokenizer#split(Path, long)}. Positions
+	 * are counted from 1 at the start of the part, so the index of every part
+	 * after the first must be moved by the number of words before it, see
+	 * {@link PostingList#addAll(PostingList, int)}.
+	 * 
+	 * @param inputFile the file
+	 * @param start     position of the first byte of the part
+	 * @param end       position after the last byte of the part
+	 * @param index     of our inverted index
+	 * @return number of words in the part
+	 * @throws IOException
+	 */
+	public static int addPath(Path inputFile, long start, long end, InvertedIndex index) throws IOException {
+		try (TextFileTokenizer tokens = new TextFileTokenizer(inputFile, start, end);) {
+			return addTokens(tokens, inputFile.toString(), index);
+		}
+	}
+
+	/**
+	 * This function stems every token and adds it to the inverted index.
+	 * 
+	 * @param tokens   of the file
+	 * @param location of the file
+	 * @param index    of our inverted index
+	 * @return number of words added
+	 * @throws IOException
+	 */
+	private static int addTokens(TextFileTokenizer tokens, String location, InvertedIndex index)
+			throws IOException {
+		Stemmer stemmer = StemCache.ENGLISH.wrap(new SnowballStemmer(DEFAULT));
+		int i = 0;
+
+		while (tokens.next()) {
+			String data = stemmer.stem(tokens.token()).toString();
+			index.addEntry(data, location, ++i);
 		}
+		return i;
 	}
 
 	/**
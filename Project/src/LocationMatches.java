@@ -0,0 +1,121 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * This is the matches of a single search of an index without a document
+ * table. Locations are given document IDs in the order the search first meets
+ * them, so the shared scoring of InvertedIndex can be used, and matching counts
+ * of the same location are summed before it is scored.
+ *
+ * @author alex
+ */
+class LocationMatches {
+
+	/**
+	 * Location to word count of the index searched.
+	 */
+	private final Map<String, Integer> counts;
+
+	/**
+	 * Location of each document ID.
+	 */
+	private final ArrayList<String> locations;
+
+	/**
+	 * Document ID of each location.
+	 */
+	private final HashMap<String, Integer> ids;
+
+	/**
+	 * Word count of each document ID.
+	 */
+	private final ArrayList<Integer> wordCounts;
+
+	/**
+	 * Matching positions per document ID.
+	 */
+	private final InvertedIndex.Matches matches;
+
+	/**
+	 * This is constructor for a search with no matches yet.
+	 *
+	 * @param counts location to word count of the index searched
+	 */
+	public LocationMatches(Map<String, Integer> counts) {
+		this.counts = counts;
+		this.locations = new ArrayList<>();
+		this.ids = new HashMap<>();
+		this.wordCounts = new ArrayList<>();
+		this.matches = new InvertedIndex.Matches(16);
+	}
+
+	/**
+	 * This function adds matching positions of a location. Locations removed
+	 * while searching, whose count is already gone, are skipped.
+	 *
+	 * @param location the location
+	 * @param found    number of matching positions
+	 */
+	public void add(String location, int found) {
+		Integer document = ids.get(location);
+		if (document == null) {
+			Integer count = counts.get(location);
+			if (count == null) {
+				return;
+			}
+			document = locations.size();
+			locations.add(location);
+			wordCounts.add(count);
+			ids.put(location, document);
+		}
+		matches.add(document, found);
+	}
+
+	/**
+	 * This function returns the word count of a document ID.
+	 *
+	 * @param document ID of the location
+	 * @return word count
+	 */
+	private int getCount(int document) {
+		return wordCounts.get(document);
+	}
+
+	/**
+	 * This function calls the visitor with every location and its number of
+	 * matches, unscored.
+	 *
+	 * @param visitor called with the location and its number of matches
+	 */
+	public void forEach(ObjIntConsumer<String> visitor) {
+		for (int i = 0; i < matches.size(); i++) {
+			int document = matches.getDocument(i);
+			visitor.accept(locations.get(document), matches.getCount(document));
+		}
+	}
+
+	/**
+	 * This function returns every result, sorted.
+	 *
+	 * @return sorted results
+	 */
+	public ArrayList<InvertedIndex.SearchResult> getResults() {
+		ArrayList<InvertedIndex.SearchResult> results = InvertedIndex.getResults(matches, this::getCount,
+				locations::get);
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * This function returns only the best results.
+	 *
+	 * @param limit maximum number of results
+	 * @return sorted best results
+	 */
+	public ArrayList<InvertedIndex.SearchResult> topResults(int limit) {
+		return InvertedIndex.topResults(matches, this::getCount, locations::get, limit);
+	}
+}
@@ -0,0 +1,887 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * This class builds an inverted index in a pipeline of three stages, each run
+ * by its own threads and handing work to the next through a bounded queue:
+ *
+ * <ol>
+ * <li>read: files are split in parts with
+ * {@link TextFileTokenizer#split(Path, long)} and each part is read into
+ * memory,</li>
+ * <li>parse: each part is decoded, split and stemmed into batches of words,
+ * every batch keeping its distinct words once and the words in order as
+ * indexes into them,</li>
+ * <li>index: batches are added to the posting lists of their part, and once
+ * every part of a file is done they are joined into one local index added to
+ * the inverted index.</li>
+ * </ol>
+ *
+ * Disk reads, parsing and index insertion overlap instead of alternating in
+ * every thread, and a full queue stops the stages before it, so memory is
+ * bounded by the queue sizes. Every stage counts its work and how its threads
+ * spend their time, see {@link #getStages()}: the slowest stage is the one
+ * busy the most, while the stages before it are blocked and the ones after it
+ * are starved. The index built is the same as {@link InvertedIndexBuilder}
+ * builds.
+ *
+ * @author alex
+ */
+public class PipelinedInvertedIndexBuilder extends InvertedIndexBuilder {
+
+	/**
+	 * Size of the parts files are read in.
+	 */
+	public static final long PART_SIZE = 1 << 20;
+
+	/**
+	 * Most words in one batch.
+	 */
+	public static final int BATCH_SIZE = 1 << 12;
+
+	/**
+	 * Most parts or batches waiting per thread of the next stage.
+	 */
+	private static final int QUEUED_PER_THREAD = 4;
+
+	/**
+	 * This is default SnowballStemmer algorithm.
+	 */
+	private static final SnowballStemmer.ALGORITHM DEFAULT = SnowballStemmer.ALGORITHM.ENGLISH;
+
+	/**
+	 * The inverted index to populate.
+	 */
+	private final InvertedIndex index;
+
+	/**
+	 * Number of threads reading files.
+	 */
+	private final int readers;
+
+	/**
+	 * Number of threads parsing and stemming parts.
+	 */
+	private final int parsers;
+
+	/**
+	 * Number of threads adding batches to the index.
+	 */
+	private final int indexers;
+
+	/**
+	 * Stages of the last build, or an empty list.
+	 */
+	private volatile List<Stage> stages;
+
+	/**
+	 * First unchecked exception thrown while building, thrown again once the
+	 * pipeline is drained.
+	 */
+	private final AtomicReference<RuntimeException> failure;
+
+	/**
+	 * Constructor for the pipelined builder. The index is only added to by one
+	 * thread at a time, so it does not need to be thread-safe.
+	 *
+	 * @param index    the inverted index to populate
+	 * @param readers  number of threads reading files
+	 * @param parsers  number of threads parsing and stemming
+	 * @param indexers number of threads adding to the index
+	 */
+	public PipelinedInvertedIndexBuilder(InvertedIndex index, int readers, int parsers, int indexers) {
+		super(index);
+		this.index = index;
+		this.readers = Math.max(readers, 1);
+		this.parsers = Math.max(parsers, 1);
+		this.indexers = Math.max(indexers, 1);
+		this.stages = Collections.emptyList();
+		this.failure = new AtomicReference<>();
+	}
+
+	/**
+	 * This function returns the stages of the last build, in pipeline order,
+	 * or an empty list if there was none yet.
+	 *
+	 * @return read, parse and index stages
+	 */
+	public List<Stage> getStages() {
+		return stages;
+	}
+
+	/**
+	 * This function returns the stages of the last build, one per line.
+	 *
+	 * @return stage metrics
+	 */
+	public String getMetrics() {
+		List<String> lines = new ArrayList<>();
+		for (Stage stage : stages) {
+			lines.add(stage.toString());
+		}
+		return String.join(System.lineSeparator(), lines);
+	}
+
+	/**
+	 * This function builds every text file through the pipeline and waits for
+	 * it to drain, then seals the posting lists. A file that can not be read is
+	 * left out whole and reported by {@link #getFailed()}. Work that throws an
+	 * unchecked exception only fails its own file, and the first such exception
+	 * is thrown again once every other file is added.
+	 *
+	 * @throws IOException wrapping the first unchecked exception thrown while
+	 *                     building
+	 */
+	@Override
+	public void addFiles(List<Path> paths) throws IOException {
+		clearFailed();
+		failure.set(null);
+		ConcurrentLinkedQueue<Path> files = new ConcurrentLinkedQueue<>(paths);
+		BlockingQueue<Block> blocks = new ArrayBlockingQueue<>(parsers * QUEUED_PER_THREAD);
+		BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(indexers * QUEUED_PER_THREAD);
+
+		Stage read = new Stage("read", readers, "parts", "bytes");
+		Stage parse = new Stage("parse", parsers, "batches", "words");
+		Stage insert = new Stage("index", indexers, "batches", "words");
+		stages = List.of(read, parse, insert);
+
+		read.start(() -> read(files, blocks, read));
+		parse.start(() -> parse(blocks, batches, parse));
+		insert.start(() -> insert(batches, insert));
+
+		try {
+			read.join();
+			for (int i = 0; i < parsers; i++) {
+				blocks.put(Block.END);
+			}
+			parse.join();
+			for (int i = 0; i < indexers; i++) {
+				batches.put(Batch.END);
+			}
+			insert.join();
+		} catch (InterruptedException e) {
+			read.interrupt();
+			parse.interrupt();
+			insert.interrupt();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Building the index was interrupted.");
+		}
+		index.seal();
+
+		RuntimeException e = failure.getAndSet(null);
+		if (e != null) {
+			throw new IOException("Unable to build every file through the pipeline.", e);
+		}
+	}
+
+	/**
+	 * This function keeps the first unchecked exception thrown while building,
+	 * so the stage goes on with the next item instead of its thread dying.
+	 *
+	 * @param e the exception
+	 */
+	private void fail(RuntimeException e) {
+		failure.compareAndSet(null, e);
+	}
+
+	/**
+	 * This function is the loop of the read stage, reading the parts of files
+	 * until there are no files left.
+	 *
+	 * @param files  files not read yet
+	 * @param blocks queue of the parse stage
+	 * @param stage  the read stage
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private void read(ConcurrentLinkedQueue<Path> files, BlockingQueue<Block> blocks, Stage stage)
+			throws InterruptedException {
+		Path path;
+		while ((path = files.poll()) != null) {
+			long[] boundaries;
+			try {
+				boundaries = TextFileTokenizer.split(path, PART_SIZE);
+			} catch (IOException e) {
+				failed(path);
+				continue;
+			} catch (RuntimeException e) {
+				fail(e);
+				failed(path);
+				continue;
+			}
+
+			Document document = new Document(path, boundaries.length - 1);
+			int sent = 0;
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				for (; sent < boundaries.length - 1; sent++) {
+					long start = boundaries[sent];
+					long length = boundaries[sent + 1] - start;
+					if (length > Integer.MAX_VALUE) {
+						throw new IOException("Part too large: " + length + " bytes");
+					}
+
+					ByteBuffer bytes = ByteBuffer.allocate((int) length);
+					while (bytes.hasRemaining() && channel.read(bytes, start + bytes.position()) >= 0) {
+						// read until the part is full or the file ends
+					}
+					bytes.flip();
+					Block block = new Block(document, sent, bytes, TextFileTokenizer.startsLine(channel, start));
+					stage.done(1, length);
+					stage.put(blocks, block);
+				}
+			} catch (IOException | RuntimeException e) {
+				if (e instanceof RuntimeException) {
+					fail((RuntimeException) e);
+				}
+				document.failed = true;
+				for (; sent < boundaries.length - 1; sent++) {
+					document.finishPart();
+				}
+			}
+		}
+	}
+
+	/**
+	 * This function is the loop of the parse stage, splitting and stemming parts
+	 * into batches until the read stage is done.
+	 *
+	 * @param blocks  queue of parts read
+	 * @param batches queue of the index stage
+	 * @param stage   the parse stage
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private void parse(BlockingQueue<Block> blocks, BlockingQueue<Batch> batches, Stage stage)
+			throws InterruptedException {
+		Stemmer stemmer = StemCache.ENGLISH.wrap(new SnowballStemmer(DEFAULT));
+		Map<String, Integer> distinct = new HashMap<>();
+
+		Block block;
+		while ((block = stage.take(blocks)) != Block.END) {
+			Batch batch = new Batch(block.document, block.part, 1);
+			int count = 0;
+			boolean failed = false;
+
+			try (TextFileTokenizer tokens = new TextFileTokenizer(block.bytes, block.lineStart)) {
+				while (tokens.next()) {
+					String word = stemmer.stem(tokens.token()).toString();
+					Integer id = distinct.get(word);
+					if (id == null) {
+						id = batch.distinct;
+						distinct.put(word, id);
+						batch.words[batch.distinct++] = word;
+					}
+					batch.ids[batch.size++] = id;
+					count++;
+
+					if (batch.size == BATCH_SIZE) {
+						stage.done(1, batch.size);
+						stage.put(batches, batch);
+						batch = new Batch(block.document, block.part, count + 1);
+						distinct.clear();
+					}
+				}
+			} catch (IOException e) {
+				failed = true;
+			} catch (RuntimeException e) {
+				fail(e);
+				failed = true;
+			}
+
+			batch.last = true;
+			batch.total = count;
+			batch.failed = failed;
+			stage.done(1, batch.size);
+			stage.put(batches, batch);
+			distinct.clear();
+		}
+	}
+
+	/**
+	 * This function is the loop of the index stage, adding batches to the
+	 * posting lists of their parts until the parse stage is done.
+	 *
+	 * @param batches queue of batches parsed
+	 * @param stage   the index stage
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private void insert(BlockingQueue<Batch> batches, Stage stage) throws InterruptedException {
+		Batch batch;
+		while ((batch = stage.take(batches)) != Batch.END) {
+			Part part = batch.document.parts[batch.part];
+			boolean finished;
+			boolean failed;
+
+			synchronized (part) {
+				try {
+					PostingList[] lists = new PostingList[batch.distinct];
+					for (int i = 0; i < batch.distinct; i++) {
+						lists[i] = part.postings.computeIfAbsent(batch.words[i], word -> new PostingList());
+					}
+					for (int i = 0; i < batch.size; i++) {
+						lists[batch.ids[i]].add(batch.start + i);
+					}
+				} catch (RuntimeException e) {
+					// the words are still counted, so the part is finished
+					fail(e);
+					part.failed = true;
+				}
+
+				part.added += batch.size;
+				if (batch.last) {
+					part.count = batch.total;
+				}
+				part.failed |= batch.failed;
+				finished = part.added == part.count;
+				failed = part.failed;
+			}
+			stage.done(1, batch.size);
+
+			if (finished) {
+				if (failed) {
+					batch.document.failed = true;
+				}
+				batch.document.finishPart();
+			}
+		}
+	}
+
+	/**
+	 * This function adds the local index of a finished file to the inverted
+	 * index, one file at a time.
+	 *
+	 * @param local the local index of the file
+	 */
+	private synchronized void addLocal(InvertedIndex local) {
+		index.addAll(local);
+	}
+
+	/**
+	 * This is a file going through the pipeline.
+	 */
+	private class Document {
+
+		/**
+		 * Path to the file in question.
+		 */
+		private final Path path;
+
+		/**
+		 * Posting lists of each part, in file order.
+		 */
+		private final Part[] parts;
+
+		/**
+		 * Number of parts not finished yet.
+		 */
+		private final AtomicInteger remaining;
+
+		/**
+		 * True if any part could not be read or parsed.
+		 */
+		private volatile boolean failed;
+
+		/**
+		 * Constructor for a file in the pipeline
+		 * @param path the file
+		 * @param size number of parts
+		 */
+		public Document(Path path, int size) {
+			this.path = path;
+			this.parts = new Part[size];
+			for (int i = 0; i < size; i++) {
+				parts[i] = new Part();
+			}
+			this.remaining = new AtomicInteger(size);
+			this.failed = false;
+		}
+
+		/**
+		 * This function counts a finished part, and once every part is finished
+		 * joins them into one local index with the positions of each part moved
+		 * by the number of words before it, and adds it to the inverted index.
+		 */
+		public void finishPart() {
+			if (remaining.decrementAndGet() != 0) {
+				return;
+			}
+
+			if (failed) {
+				failed(path);
+				return;
+			}
+			try {
+				// every word is joined in one open list, so it is sealed only once
+				Map<String, PostingList> joined = new HashMap<>();
+				int offset = 0;
+				for (Part part : parts) {
+					synchronized (part) {
+						for (Map.Entry<String, PostingList> entry : part.postings.entrySet()) {
+							joined.computeIfAbsent(entry.getKey(), key -> new PostingList())
+									.addAll(entry.getValue(), offset);
+						}
+						offset += part.count;
+					}
+				}
+
+				InvertedIndex local = new InvertedIndex();
+				String location = path.toString();
+				joined.forEach((word, positions) -> local.addAll(word, location, positions));
+				addLocal(local);
+			} catch (RuntimeException e) {
+				fail(e);
+				failed(path);
+			}
+		}
+	}
+
+	/**
+	 * This is the posting lists of one part of a file, with positions counted
+	 * from the start of the part.
+	 */
+	private static class Part {
+
+		/**
+		 * Positions of every word in the part.
+		 */
+		private final Map<String, PostingList> postings = new HashMap<>();
+
+		/**
+		 * Number of words added so far.
+		 */
+		private int added = 0;
+
+		/**
+		 * Number of words in the part, or -1 until the last batch is added.
+		 */
+		private int count = -1;
+
+		/**
+		 * True if the part could not be parsed.
+		 */
+		private boolean failed = false;
+	}
+
+	/**
+	 * This is a part of a file read into memory.
+	 */
+	private static class Block {
+
+		/**
+		 * Marks the end of the parts, one for each parse thread.
+		 */
+		private static final Block END = new Block(null, 0, null, false);
+
+		/**
+		 * The file of the part.
+		 */
+		private final Document document;
+
+		/**
+		 * Index of the part in the file.
+		 */
+		private final int part;
+
+		/**
+		 * The bytes of the part.
+		 */
+		private final ByteBuffer bytes;
+
+		/**
+		 * True if the part starts a line.
+		 */
+		private final boolean lineStart;
+
+		/**
+		 * Constructor for a part read
+		 * @param document  the file of the part
+		 * @param part      index of the part
+		 * @param bytes     the bytes of the part
+		 * @param lineStart true if the part starts a line
+		 */
+		public Block(Document document, int part, ByteBuffer bytes, boolean lineStart) {
+			this.document = document;
+			this.part = part;
+			this.bytes = bytes;
+			this.lineStart = lineStart;
+		}
+	}
+
+	/**
+	 * This is a batch of words of one part, in order. Each distinct word is kept
+	 * once and the words are indexes into them, so the index stage looks each
+	 * word up once per batch.
+	 */
+	private static class Batch {
+
+		/**
+		 * Marks the end of the batches, one for each index thread.
+		 */
+		private static final Batch END = new Batch(null, 0, 0);
+
+		/**
+		 * The file of the batch.
+		 */
+		private final Document document;
+
+		/**
+		 * Index of the part in the file.
+		 */
+		private final int part;
+
+		/**
+		 * Position of the first word in the part.
+		 */
+		private final int start;
+
+		/**
+		 * Distinct words of the batch.
+		 */
+		private final String[] words;
+
+		/**
+		 * Index into {@link #words} of every word, in order.
+		 */
+		private final int[] ids;
+
+		/**
+		 * Number of distinct words.
+		 */
+		private int distinct;
+
+		/**
+		 * Number of words.
+		 */
+		private int size;
+
+		/**
+		 * True for the last batch of the part.
+		 */
+		private boolean last;
+
+		/**
+		 * Number of words in the part, set in the last batch.
+		 */
+		private int total;
+
+		/**
+		 * True if the part could not be parsed, set in the last batch.
+		 */
+		private boolean failed;
+
+		/**
+		 * Constructor for an empty batch
+		 * @param document the file of the batch
+		 * @param part     index of the part
+		 * @param start    position of the first word in the part
+		 */
+		public Batch(Document document, int part, int start) {
+			this.document = document;
+			this.part = part;
+			this.start = start;
+			this.words = document == null ? new String[0] : new String[BATCH_SIZE];
+			this.ids = document == null ? new int[0] : new int[BATCH_SIZE];
+		}
+	}
+
+	/**
+	 * This is a stage of the pipeline: its threads and counters of the work
+	 * they did and how they spent their time. Times spent waiting for work are
+	 * starved, and times spent waiting for room in the next queue are blocked.
+	 */
+	public static class Stage {
+
+		/**
+		 * Name of the stage.
+		 */
+		private final String name;
+
+		/**
+		 * Threads of the stage.
+		 */
+		private final Thread[] threads;
+
+		/**
+		 * What the items of the stage are called.
+		 */
+		private final String itemName;
+
+		/**
+		 * What the units of the stage are called.
+		 */
+		private final String unitName;
+
+		/**
+		 * Items done, parts or batches.
+		 */
+		private final LongAdder items;
+
+		/**
+		 * Units done, bytes or words.
+		 */
+		private final LongAdder units;
+
+		/**
+		 * Time spent waiting for work, in nanoseconds.
+		 */
+		private final LongAdder starved;
+
+		/**
+		 * Time spent waiting for room in the next queue, in nanoseconds.
+		 */
+		private final LongAdder blocked;
+
+		/**
+		 * Time the threads were running, in nanoseconds.
+		 */
+		private final LongAdder alive;
+
+		/**
+		 * Start time of the stage.
+		 */
+		private volatile long started;
+
+		/**
+		 * End time of the stage, or 0 while running.
+		 */
+		private volatile long ended;
+
+		/**
+		 * Constructor for a stage
+		 * @param name     name of the stage
+		 * @param threads  number of threads
+		 * @param itemName what the items are called
+		 * @param unitName what the units are called
+		 */
+		private Stage(String name, int threads, String itemName, String unitName) {
+			this.name = name;
+			this.threads = new Thread[threads];
+			this.itemName = itemName;
+			this.unitName = unitName;
+			this.items = new LongAdder();
+			this.units = new LongAdder();
+			this.starved = new LongAdder();
+			this.blocked = new LongAdder();
+			this.alive = new LongAdder();
+		}
+
+		/**
+		 * This is the loop run by every thread of a stage.
+		 */
+		@FunctionalInterface
+		private interface Loop {
+
+			/**
+			 * This function runs until the stage is done.
+			 *
+			 * @throws InterruptedException if interrupted while waiting
+			 */
+			public void run() throws InterruptedException;
+		}
+
+		/**
+		 * This function starts the threads of the stage.
+		 *
+		 * @param loop run by every thread
+		 */
+		private void start(Loop loop) {
+			started = System.nanoTime();
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread(() -> {
+					long start = System.nanoTime();
+					try {
+						loop.run();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						alive.add(System.nanoTime() - start);
+					}
+				}, "pipeline-" + name + "-" + i);
+				threads[i].start();
+			}
+		}
+
+		/**
+		 * This function waits for every thread of the stage to end.
+		 *
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		private void join() throws InterruptedException {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			ended = System.nanoTime();
+		}
+
+		/**
+		 * This function interrupts every thread of the stage.
+		 */
+		private void interrupt() {
+			for (Thread thread : threads) {
+				thread.interrupt();
+			}
+		}
+
+		/**
+		 * This function takes the next item of the stage, counting the time
+		 * waited as starved.
+		 *
+		 * @param <T>   type of the items
+		 * @param queue queue of the stage
+		 * @return the next item
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		private <T> T take(BlockingQueue<T> queue) throws InterruptedException {
+			long start = System.nanoTime();
+			T item = queue.take();
+			starved.add(System.nanoTime() - start);
+			return item;
+		}
+
+		/**
+		 * This function hands an item to the next stage, counting the time waited
+		 * as blocked.
+		 *
+		 * @param <T>   type of the items
+		 * @param queue queue of the next stage
+		 * @param item  the item
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		private <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+			long start = System.nanoTime();
+			queue.put(item);
+			blocked.add(System.nanoTime() - start);
+		}
+
+		/**
+		 * This function counts work done.
+		 *
+		 * @param items number of items
+		 * @param units number of units
+		 */
+		private void done(long items, long units) {
+			this.items.add(items);
+			this.units.add(units);
+		}
+
+		/**
+		 * This function returns the name of the stage.
+		 *
+		 * @return read, parse or index
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * This function returns the number of threads of the stage.
+		 *
+		 * @return number of threads
+		 */
+		public int getThreads() {
+			return threads.length;
+		}
+
+		/**
+		 * This function returns how many items the stage did.
+		 *
+		 * @return parts or batches done
+		 */
+		public long getItems() {
+			return items.sum();
+		}
+
+		/**
+		 * This function returns how many units the stage did.
+		 *
+		 * @return bytes or words done
+		 */
+		public long getUnits() {
+			return units.sum();
+		}
+
+		/**
+		 * This function returns how long the stage ran, or has been running.
+		 *
+		 * @param unit to return the time in
+		 * @return run time
+		 */
+		public long getElapsed(TimeUnit unit) {
+			long end = ended != 0 ? ended : System.nanoTime();
+			return unit.convert(end - started, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * This function returns how many units the stage did per second.
+		 *
+		 * @return throughput
+		 */
+		public double getThroughput() {
+			long nanos = getElapsed(TimeUnit.NANOSECONDS);
+			return nanos == 0 ? 0 : getUnits() * 1e9 / nanos;
+		}
+
+		/**
+		 * This function returns the share of thread time spent waiting for work.
+		 *
+		 * @return share between 0 and 1
+		 */
+		public double getStarved() {
+			return share(starved.sum());
+		}
+
+		/**
+		 * This function returns the share of thread time spent waiting for room
+		 * in the next queue.
+		 *
+		 * @return share between 0 and 1
+		 */
+		public double getBlocked() {
+			return share(blocked.sum());
+		}
+
+		/**
+		 * This function returns the share of thread time spent working.
+		 *
+		 * @return share between 0 and 1
+		 */
+		public double getBusy() {
+			return Math.max(0, 1 - getStarved() - getBlocked());
+		}
+
+		/**
+		 * This function returns the share of the time the threads ran.
+		 *
+		 * @param nanos time in nanoseconds
+		 * @return share between 0 and 1
+		 */
+		private double share(long nanos) {
+			long total = alive.sum();
+			return total == 0 ? 0 : Math.min((double) nanos / total, 1.0);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-5s threads=%d %s=%d %s=%d %.0f %s/s busy=%.0f%% starved=%.0f%% blocked=%.0f%%",
+					name, getThreads(), itemName, getItems(), unitName, getUnits(), getThroughput(), unitName,
+					getBusy() * 100, getStarved() * 100, getBlocked() * 100);
+		}
+	}
+}
@@ -0,0 +1,401 @@
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This is compact list of word positions for one word in one location. While
+ * the list is open the positions are kept in a growable int array, once it is
+ * sealed they are delta and variable-byte encoded into a byte array. Positions
+ * are always kept sorted and unique, so the list behaves like the
+ * {@code TreeSet<Integer>} it replaces without boxing every position.
+ *
+ * @author alex
+ */
+public class PostingList extends AbstractSet<Integer> {
+
+	/**
+	 * Initial capacity of the open positions array.
+	 */
+	private static final int INITIAL_CAPACITY = 4;
+
+	/**
+	 * Sorted positions while the list is open, null once sealed.
+	 */
+	private int[] positions;
+
+	/**
+	 * Delta and variable-byte encoded positions once sealed, null while open.
+	 */
+	private byte[] encoded;
+
+	/**
+	 * Number of positions in this list.
+	 */
+	private int size;
+
+	/**
+	 * Largest position in this list, used for the fast append path.
+	 */
+	private int last;
+
+	/**
+	 * This is constructor for the empty posting list.
+	 */
+	public PostingList() {
+		this.positions = new int[INITIAL_CAPACITY];
+		this.encoded = null;
+		this.size = 0;
+		this.last = 0;
+	}
+
+	/**
+	 * This function adds a position to the list. Positions arriving in
+	 * increasing order are appended, others are inserted in sorted order.
+	 *
+	 * @param position to add
+	 * @return true if the list was modified
+	 */
+	public boolean add(int position) {
+		if (encoded != null) {
+			unseal();
+		}
+
+		if (size == 0 || position > last) {
+			grow(size + 1);
+			positions[size++] = position;
+			last = position;
+			return true;
+		}
+
+		int index = Arrays.binarySearch(positions, 0, size, position);
+		if (index >= 0) {
+			return false;
+		}
+
+		index = -(index + 1);
+		grow(size + 1);
+		System.arraycopy(positions, index, positions, index + 1, size - index);
+		positions[index] = position;
+		size++;
+		return true;
+	}
+
+	/**
+	 * This function adds every position of another list to this one.
+	 *
+	 * @param other list to merge in
+	 * @return true if the list was modified
+	 */
+	public boolean addAll(PostingList other) {
+		if (other.size == 0) {
+			return false;
+		}
+
+		if (size == 0 || other.first() > last) {
+			int[] values = other.toIntArray();
+			if (encoded != null) {
+				unseal();
+			}
+			grow(size + values.length);
+			System.arraycopy(values, 0, positions, size, values.length);
+			size += values.length;
+			last = values[values.length - 1];
+			return true;
+		}
+
+		boolean modified = false;
+		for (int position : other.toIntArray()) {
+			modified |= add(position);
+		}
+		return modified;
+	}
+
+	/**
+	 * This function adds every position of another list moved by an offset,
+	 * used to place positions counted from the start of part of a file after
+	 * the parts before it.
+	 *
+	 * @param other  list to merge in
+	 * @param offset to add to every position of the other list
+	 * @return true if the list was modified
+	 */
+	public boolean addAll(PostingList other, int offset) {
+		if (other.size == 0) {
+			return false;
+		}
+
+		int[] values = other.toIntArray();
+		if (size == 0 || values[0] + offset > last) {
+			if (encoded != null) {
+				unseal();
+			}
+			grow(size + values.length);
+			for (int value : values) {
+				positions[size++] = value + offset;
+			}
+			last = positions[size - 1];
+			return true;
+		}
+
+		boolean modified = false;
+		for (int value : values) {
+			modified |= add(value + offset);
+		}
+		return modified;
+	}
+
+	/**
+	 * This function check if the list contains the position.
+	 *
+	 * @param position to look for
+	 * @return true if found
+	 */
+	public boolean contains(int position) {
+		if (size == 0 || position > last) {
+			return false;
+		}
+
+		if (encoded == null) {
+			return Arrays.binarySearch(positions, 0, size, position) >= 0;
+		}
+
+		Decoder decoder = new Decoder();
+		while (decoder.hasNext()) {
+			int current = decoder.nextInt();
+			if (current >= position) {
+				return current == position;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return o instanceof Integer && contains(((Integer) o).intValue());
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * This function returns the smallest position.
+	 *
+	 * @return first position
+	 * @throws NoSuchElementException if the list is empty
+	 */
+	public int first() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return encoded == null ? positions[0] : new Decoder().nextInt();
+	}
+
+	/**
+	 * This function returns the largest position.
+	 *
+	 * @return last position
+	 * @throws NoSuchElementException if the list is empty
+	 */
+	public int last() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return last;
+	}
+
+	/**
+	 * This function copies the positions into a new sorted array.
+	 *
+	 * @return array of positions
+	 */
+	public int[] toIntArray() {
+		if (encoded == null) {
+			return Arrays.copyOf(positions, size);
+		}
+
+		int[] values = new int[size];
+		Decoder decoder = new Decoder();
+		for (int i = 0; i < size; i++) {
+			values[i] = decoder.nextInt();
+		}
+		return values;
+	}
+
+	/**
+	 * This function check if the list is sealed.
+	 *
+	 * @return true if positions are currently encoded
+	 */
+	public boolean isSealed() {
+		return encoded != null;
+	}
+
+	/**
+	 * This function seals the list, delta and variable-byte encoding the
+	 * positions. Adding to a sealed list will transparently open it again.
+	 */
+	public void seal() {
+		if (encoded != null) {
+			return;
+		}
+
+		this.encoded = encode();
+		this.positions = null;
+	}
+
+	/**
+	 * This function returns the delta and variable-byte encoding of the
+	 * positions without changing the list.
+	 *
+	 * @return encoded positions
+	 */
+	public byte[] encode() {
+		if (encoded != null) {
+			return encoded.clone();
+		}
+
+		byte[] buffer = new byte[size * 5];
+		int length = 0;
+		int previous = 0;
+
+		for (int i = 0; i < size; i++) {
+			int delta = positions[i] - previous;
+			previous = positions[i];
+
+			while ((delta & ~0x7F) != 0) {
+				buffer[length++] = (byte) ((delta & 0x7F) | 0x80);
+				delta >>>= 7;
+			}
+			buffer[length++] = (byte) delta;
+		}
+
+		return Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * This function creates a sealed list from positions produced by
+	 * {@link #encode()}.
+	 *
+	 * @param encoded positions
+	 * @param size    number of positions encoded
+	 * @return sealed posting list
+	 */
+	public static PostingList decode(byte[] encoded, int size) {
+		PostingList list = new PostingList();
+		list.positions = null;
+		list.encoded = encoded;
+		list.size = size;
+
+		Decoder decoder = list.new Decoder();
+		while (decoder.hasNext()) {
+			list.last = decoder.nextInt();
+		}
+		return list;
+	}
+
+	/**
+	 * This function decodes a sealed list back into the growable array.
+	 */
+	private void unseal() {
+		int[] values = toIntArray();
+		this.positions = values.length == 0 ? new int[INITIAL_CAPACITY] : values;
+		this.encoded = null;
+	}
+
+	/**
+	 * This function makes sure the open array can hold the given number of
+	 * positions.
+	 *
+	 * @param capacity needed
+	 */
+	private void grow(int capacity) {
+		if (capacity > positions.length) {
+			positions = Arrays.copyOf(positions, Math.max(capacity, positions.length + (positions.length >> 1)));
+		}
+	}
+
+	@Override
+	public Iterator<Integer> iterator() {
+		if (encoded != null) {
+			return new Decoder();
+		}
+
+		return new Iterator<Integer>() {
+			/**
+			 * Index of the next position.
+			 */
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			public Integer next() {
+				if (index >= size) {
+					throw new NoSuchElementException();
+				}
+				return positions[index++];
+			}
+		};
+	}
+
+	/**
+	 * This is sequential decoder over the sealed byte array.
+	 */
+	private class Decoder implements Iterator<Integer> {
+
+		/**
+		 * Offset of the next byte to read.
+		 */
+		private int offset = 0;
+
+		/**
+		 * Number of positions decoded so far.
+		 */
+		private int count = 0;
+
+		/**
+		 * Previously decoded position.
+		 */
+		private int previous = 0;
+
+		@Override
+		public boolean hasNext() {
+			return count < size;
+		}
+
+		@Override
+		public Integer next() {
+			return nextInt();
+		}
+
+		/**
+		 * This function decodes the next position without boxing it.
+		 *
+		 * @return next position
+		 */
+		public int nextInt() {
+			if (count >= size) {
+				throw new NoSuchElementException();
+			}
+
+			int delta = 0;
+			int shift = 0;
+			byte current;
+			do {
+				current = encoded[offset++];
+				delta |= (current & 0x7F) << shift;
+				shift += 7;
+			} while ((current & 0x80) != 0);
+
+			count++;
+			previous += delta;
+			return previous;
+		}
+	}
+}
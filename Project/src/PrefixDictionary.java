@@ -0,0 +1,239 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * This is immutable, sorted term dictionary used for partial search. Words
+ * are front-coded in blocks: the first word of every block is stored whole and
+ * the rest only store the length of the prefix they share with the word before
+ * them and their remaining characters, all in one char array. Every word with
+ * a given prefix is a contiguous range of ranks, found with two binary
+ * searches over the block heads and a short scan inside one block each.
+ *
+ * @author alex
+ */
+public class PrefixDictionary {
+
+	/**
+	 * Number of words per block.
+	 */
+	private static final int BLOCK_SIZE = 16;
+
+	/**
+	 * Front-coded words. Each entry is the shared prefix length, the suffix
+	 * length and then the suffix characters.
+	 */
+	private final char[] data;
+
+	/**
+	 * Offset into data of the first word of each block.
+	 */
+	private final int[] blocks;
+
+	/**
+	 * Term ID of each word, indexed by rank in sorted order.
+	 */
+	private final int[] ids;
+
+	/**
+	 * Length of the longest word.
+	 */
+	private final int longest;
+
+	/**
+	 * This is constructor that front codes a sorted map of words to term IDs.
+	 *
+	 * @param words sorted map of word to term ID
+	 */
+	public PrefixDictionary(SortedMap<String, Integer> words) {
+		this.ids = new int[words.size()];
+		this.blocks = new int[(words.size() + BLOCK_SIZE - 1) / BLOCK_SIZE];
+
+		char[] buffer = new char[64];
+		int length = 0;
+		int rank = 0;
+		int max = 0;
+		String previous = "";
+
+		for (Map.Entry<String, Integer> entry : words.entrySet()) {
+			String word = entry.getKey();
+			if (word.length() > Character.MAX_VALUE) {
+				throw new IllegalArgumentException("Word is too long to front code: " + word.length());
+			}
+
+			int shared = 0;
+			if (rank % BLOCK_SIZE == 0) {
+				blocks[rank / BLOCK_SIZE] = length;
+			} else {
+				int limit = Math.min(previous.length(), word.length());
+				while (shared < limit && previous.charAt(shared) == word.charAt(shared)) {
+					shared++;
+				}
+			}
+
+			int suffix = word.length() - shared;
+			if (length + suffix + 2 > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(length + suffix + 2, buffer.length * 2));
+			}
+			buffer[length++] = (char) shared;
+			buffer[length++] = (char) suffix;
+			word.getChars(shared, word.length(), buffer, length);
+			length += suffix;
+
+			ids[rank++] = entry.getValue();
+			max = Math.max(max, word.length());
+			previous = word;
+		}
+
+		this.data = Arrays.copyOf(buffer, length);
+		this.longest = max;
+	}
+
+	/**
+	 * This function returns how many words are in the dictionary.
+	 *
+	 * @return number of words
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * This function returns the term ID of the word with the given rank.
+	 *
+	 * @param rank of the word in sorted order
+	 * @return term ID
+	 */
+	public int getId(int rank) {
+		return ids[rank];
+	}
+
+	/**
+	 * This function returns the word with the given rank.
+	 *
+	 * @param rank of the word in sorted order
+	 * @return the word
+	 */
+	public String getWord(int rank) {
+		char[] word = new char[longest];
+		int offset = blocks[rank / BLOCK_SIZE];
+		int length = 0;
+
+		for (int i = rank / BLOCK_SIZE * BLOCK_SIZE; i <= rank; i++) {
+			length = data[offset] + data[offset + 1];
+			System.arraycopy(data, offset + 2, word, data[offset], data[offset + 1]);
+			offset += 2 + data[offset + 1];
+		}
+		return new String(word, 0, length);
+	}
+
+	/**
+	 * This function returns the ranks of every word starting with the prefix.
+	 *
+	 * @param prefix to look for
+	 * @return first rank (inclusive) and last rank (exclusive) of the range
+	 */
+	public int[] range(String prefix) {
+		return new int[] { bound(prefix, false), bound(prefix, true) };
+	}
+
+	/**
+	 * This function finds the first rank whose word comes after the prefix.
+	 *
+	 * @param prefix to look for
+	 * @param after  false to find the first word starting with or after the
+	 *               prefix, true to find the first word after every word
+	 *               starting with the prefix
+	 * @return the rank, or size if there is none
+	 */
+	private int bound(String prefix, boolean after) {
+		int low = 0;
+		int high = blocks.length;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			int offset = blocks[middle];
+			if (passes(data, offset + 2, data[offset + 1], prefix, after)) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+
+		if (low == 0) {
+			return 0;
+		}
+
+		int block = low - 1;
+		int last = Math.min((block + 1) * BLOCK_SIZE, ids.length);
+		char[] word = new char[longest];
+		int offset = blocks[block];
+
+		for (int rank = block * BLOCK_SIZE; rank < last; rank++) {
+			int length = data[offset] + data[offset + 1];
+			System.arraycopy(data, offset + 2, word, data[offset], data[offset + 1]);
+			offset += 2 + data[offset + 1];
+
+			if (passes(word, 0, length, prefix, after)) {
+				return rank;
+			}
+		}
+		return last;
+	}
+
+	/**
+	 * This function check if a word is past the bound being searched for.
+	 *
+	 * @param chars  holding the word
+	 * @param start  of the word
+	 * @param length of the word
+	 * @param prefix to compare with
+	 * @param after  true to test for after the prefix, false for starting with
+	 *               or after
+	 * @return true if the word passes
+	 */
+	private static boolean passes(char[] chars, int start, int length, String prefix, boolean after) {
+		int compare = comparePrefix(chars, start, length, prefix);
+		return after ? compare > 0 : compare >= 0;
+	}
+
+	/**
+	 * This function compares a word, cut to the length of the prefix, with the
+	 * prefix. Every word starting with the prefix compares equal, so the words
+	 * before, starting with and after the prefix form three contiguous ranges
+	 * of a sorted dictionary.
+	 *
+	 * @param chars  holding the word
+	 * @param start  of the word
+	 * @param length of the word
+	 * @param prefix to compare with
+	 * @return negative, zero or positive as the word is before, starts with or
+	 *         is after the prefix
+	 */
+	private static int comparePrefix(char[] chars, int start, int length, String prefix) {
+		int limit = Math.min(length, prefix.length());
+		for (int i = 0; i < limit; i++) {
+			char c = chars[start + i];
+			char p = prefix.charAt(i);
+			if (c != p) {
+				return c - p;
+			}
+		}
+		return length >= prefix.length() ? 0 : -1;
+	}
+
+	/**
+	 * This function compares a word, cut to the length of the prefix, with the
+	 * prefix.
+	 *
+	 * @param word   to compare
+	 * @param prefix to compare with
+	 * @return negative, zero or positive as the word is before, starts with or
+	 *         is after the prefix
+	 *
+	 * @see #comparePrefix(char[], int, int, String)
+	 */
+	public static int comparePrefix(String word, String prefix) {
+		return comparePrefix(word.toCharArray(), 0, word.length(), prefix);
+	}
+}
@@ -91,6 +91,25 @@ public class QueryHandler implements QueueInterface {
 		}
 	}
 
+	/**
+	 * This function clean and stem the query line and return only the best
+	 * results, without storing them.
+	 * @param line query line to search
+	 * @param exactSearch true for exact search, false for partial
+	 * @param limit maximum number of results
+	 * @return sorted best results
+	 */
+	@Override
+	public List<InvertedIndex.SearchResult> search(String line, boolean exactSearch, int limit) {
+		TreeSet<String> queries = TextFileStemmer.uniqueStems(line);
+		
+		if (queries.isEmpty()) {
+			return Collections.emptyList();
+		}
+		
+		return invertedIndex.search(queries, exactSearch, limit);
+	}
+
 	/**
 	 * This function open query, clean and stem the queries, and put them to TreeSet.
 	 * @param line to make
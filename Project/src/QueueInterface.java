@@ -51,5 +51,15 @@ public interface QueueInterface {
 	 * @param exactSearch
 	 */
 	public void parseQuery(String line, boolean exactSearch);
+	
+	/**
+	 * This function clean and stem the query line and return only the best
+	 * results, without storing them.
+	 * @param line query line to search
+	 * @param exactSearch true for exact search, false for partial
+	 * @param limit maximum number of results
+	 * @return sorted best results
+	 */
+	public List<InvertedIndex.SearchResult> search(String line, boolean exactSearch, int limit);
 
 }
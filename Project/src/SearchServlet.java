@@ -5,6 +5,7 @@ import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.servlet.ServletException;
@@ -28,6 +29,9 @@ public class SearchServlet extends HttpServlet {
 	/** The title to use for this webpage. */
 	private static final String TITLE = "THE BEST SEARCH BY ALEX :)";
 	
+	/** The number of results shown for a search. */
+	private static final int PAGE_SIZE = 10;
+	
 	/** The lucky search buttom to use for this webpage. */
 	private static final String LUCKY = "I AM FEELING LUCKY";
 
@@ -39,6 +43,11 @@ public class SearchServlet extends HttpServlet {
 	 */
 	private QueueInterface query;
 
+	/**
+	 * The work queue searches run on, or null to search on the request thread.
+	 */
+	private final transient WorkQueue workQueue;
+
 	/**
 	 * The number of searches
 	 */
@@ -61,12 +70,47 @@ public class SearchServlet extends HttpServlet {
 	 * @param queryBuilder The query builder
 	 * @param invertedIndex 
 	 */
-	public SearchServlet(QueueInterface queryBuilder, ThreadedInvertedIndex invertedIndex) {
+	public SearchServlet(QueueInterface queryBuilder, InvertedIndex invertedIndex) {
+		this(queryBuilder, invertedIndex, null);
+	}
+
+	/**
+	 * Initializes this message board, running searches on a work queue so the
+	 * number of searches using the CPU at once is bounded by its threads
+	 * instead of by the threads of the server.
+	 *
+	 * @param queryBuilder The query builder
+	 * @param invertedIndex 
+	 * @param workQueue the work queue to search on, or null
+	 */
+	public SearchServlet(QueueInterface queryBuilder, InvertedIndex invertedIndex, WorkQueue workQueue) {
 		super();
 		this.query = queryBuilder;
+		this.workQueue = workQueue;
 		messages = new ConcurrentLinkedQueue<>();
 	}
 
+	/**
+	 * This function searches the query handler, on the work queue if there is
+	 * one, and waits for the results.
+	 *
+	 * @param line query line to search
+	 * @param exact true for exact search, false for partial
+	 * @return sorted best results
+	 * @throws ServletException if the search failed
+	 */
+	private List<InvertedIndex.SearchResult> search(String line, boolean exact) throws ServletException {
+		if (workQueue == null) {
+			return query.search(line, exact, PAGE_SIZE);
+		}
+
+		try {
+			return workQueue.submit(() -> query.search(line, exact, PAGE_SIZE)).join();
+		} catch (CompletionException e) {
+			throw new ServletException("Search failed: " + line, e.getCause());
+		}
+	}
+
 	@Override
 	protected void doGet(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
@@ -246,11 +290,8 @@ public class SearchServlet extends HttpServlet {
 			} */
 		
 		System.out.println("boolean for search " + search);
-		query.parseQuery(message, search);
-		System.out.println("boolean for search " + search);
-
-		List<ThreadedInvertedIndex.SearchResult> theresult = query.getResults(message);
-		for (ThreadedInvertedIndex.SearchResult r: theresult) {
+		List<InvertedIndex.SearchResult> theresult = search(message, search);
+		for (InvertedIndex.SearchResult r: theresult) {
 			System.out.println("search results:" + r);
 		}
 		
@@ -266,7 +307,7 @@ public class SearchServlet extends HttpServlet {
 		} else {
 			messages.clear();
 			searches = 0;
-			for (ThreadedInvertedIndex.SearchResult result : theresult) {
+			for (InvertedIndex.SearchResult result : theresult) {
 				formatted = String.format(
 						"<a href=\"%s\">%s</a>"
 								+ "					<p class=\"has-text-grey is-size-7 has-text-right\">%s</p>%n",
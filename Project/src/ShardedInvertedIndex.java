@@ -0,0 +1,361 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * This is Thread-safe version of InvertedIndex that partitions words into
+ * shards by hash. Each shard is a ThreadedInvertedIndex with its own lock, so
+ * writers adding different words rarely wait for each other. Word counts are
+ * kept once for the whole index, and searches fan out to the shards holding
+ * the queries and merge their matches before scoring.
+ *
+ * @author alex
+ */
+public class ShardedInvertedIndex extends ThreadSafeInvertedIndex {
+
+	/**
+	 * Default number of shards.
+	 */
+	public static final int DEFAULT_SHARDS = 16;
+
+	/**
+	 * Shards of the index, each holding the words that hash to it.
+	 */
+	private final ThreadedInvertedIndex[] shards;
+
+	/**
+	 * Location to word count.
+	 */
+	private final ConcurrentSkipListMap<String, Integer> counts;
+
+	/**
+	 * This is constructor for the index with {@link #DEFAULT_SHARDS} shards.
+	 */
+	public ShardedInvertedIndex() {
+		this(DEFAULT_SHARDS);
+	}
+
+	/**
+	 * This is constructor for the index with the given number of shards.
+	 *
+	 * @param numShards number of shards, at least 1
+	 */
+	public ShardedInvertedIndex(int numShards) {
+		super();
+		this.shards = new ThreadedInvertedIndex[Math.max(numShards, 1)];
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = new ThreadedInvertedIndex();
+		}
+		this.counts = new ConcurrentSkipListMap<>();
+	}
+
+	/**
+	 * This function returns the shard holding a word.
+	 *
+	 * @param word to look up
+	 * @return index of the shard
+	 */
+	private int shardOf(String word) {
+		return Math.floorMod(word.hashCode(), shards.length);
+	}
+
+	/**
+	 * This function adds every word of another index, first splitting it into
+	 * one local index per shard so each shard is locked once.
+	 */
+	@Override
+	public void addAll(InvertedIndex other) {
+		InvertedIndex[] parts = new InvertedIndex[shards.length];
+		other.forEach((word, location, positions) -> {
+			int shard = shardOf(word);
+			if (parts[shard] == null) {
+				parts[shard] = new InvertedIndex();
+			}
+			parts[shard].addAll(word, location, positions);
+		});
+
+		for (Map.Entry<String, Integer> entry : other.getCounts().entrySet()) {
+			counts.merge(entry.getKey(), entry.getValue(), Math::max);
+		}
+
+		for (int i = 0; i < shards.length; i++) {
+			if (parts[i] != null) {
+				shards[i].addAll(parts[i]);
+			}
+		}
+	}
+
+	@Override
+	public void addAll(String word, String location, PostingList positions) {
+		if (positions.isEmpty()) {
+			return;
+		}
+		counts.merge(location, positions.last(), Math::max);
+		shards[shardOf(word)].addAll(word, location, positions);
+	}
+
+	/**
+	 * This function visits the words in sorted order by merging the sorted
+	 * words of the shards, taking the smallest next word of any shard from a
+	 * heap. Each word is held by one shard only, so its locations are visited
+	 * from that shard.
+	 */
+	@Override
+	public void forEach(PostingVisitor visitor) {
+		ArrayList<ArrayList<String>> words = new ArrayList<>(shards.length);
+		for (ThreadedInvertedIndex shard : shards) {
+			words.add(new ArrayList<>(shard.getWords()));
+		}
+
+		int[] next = new int[shards.length];
+		PriorityQueue<Integer> heap = new PriorityQueue<>(shards.length,
+				Comparator.comparing(shard -> words.get(shard).get(next[shard])));
+		for (int i = 0; i < shards.length; i++) {
+			if (!words.get(i).isEmpty()) {
+				heap.add(i);
+			}
+		}
+
+		while (!heap.isEmpty()) {
+			int shard = heap.poll();
+			shards[shard].forEach(words.get(shard).get(next[shard]++), visitor);
+			if (next[shard] < words.get(shard).size()) {
+				heap.add(shard);
+			}
+		}
+	}
+
+	@Override
+	public void forEach(String word, PostingVisitor visitor) {
+		shards[shardOf(word)].forEach(word, visitor);
+	}
+
+	@Override
+	public void addAll(String path, String[] element) {
+		addAll(path, element, 1);
+	}
+
+	@Override
+	public void addAll(String path, String[] element, int start) {
+		InvertedIndex local = new InvertedIndex();
+		local.addAll(path, element, start);
+		addAll(local);
+	}
+
+	@Override
+	public boolean addEntry(String word, String filename, int position) {
+		counts.merge(filename, position, Math::max);
+		return shards[shardOf(word)].addEntry(word, filename, position);
+	}
+
+	/**
+	 * This function removes the locations from every shard, then their word
+	 * counts, so a search that finds a location without a count knows it was
+	 * removed.
+	 */
+	@Override
+	public boolean removeAll(Collection<String> removed) {
+		boolean changed = false;
+		for (ThreadedInvertedIndex shard : shards) {
+			changed |= shard.removeAll(removed);
+		}
+		return counts.keySet().removeAll(new HashSet<>(removed)) || changed;
+	}
+
+	/**
+	 * This function returns false, since replacing changes one shard at a time.
+	 */
+	@Override
+	public boolean isReplaceAtomic() {
+		return false;
+	}
+
+	/**
+	 * This function removes the locations and then adds the other index. Each
+	 * shard is changed on its own, so a search in between may miss a location
+	 * that was replaced.
+	 */
+	@Override
+	public void replaceAll(Collection<String> removed, InvertedIndex added) {
+		removeAll(removed);
+		addAll(added);
+	}
+
+	@Override
+	public void seal() {
+		for (ThreadedInvertedIndex shard : shards) {
+			shard.seal();
+		}
+	}
+
+	@Override
+	public Map<String, Integer> getCounts() {
+		return Collections.unmodifiableMap(counts);
+	}
+
+	@Override
+	public void printIndex(Path outFile) throws IOException {
+		Iterator<Map.Entry<String, TreeMap<String, Set<Integer>>>> iterator = getWords().stream()
+				.map(word -> Map.entry(word, getLocationMap(word))).iterator();
+		SimpleJsonWriter.asDoubleNested(iterator, outFile);
+	}
+
+	/**
+	 * This function builds a sorted map of location to positions for a word, used
+	 * when the index is written out.
+	 *
+	 * @param word to look up
+	 * @return sorted map of location to positions
+	 */
+	private TreeMap<String, Set<Integer>> getLocationMap(String word) {
+		ThreadedInvertedIndex shard = shards[shardOf(word)];
+		TreeMap<String, Set<Integer>> map = new TreeMap<>();
+		for (String location : shard.getLocations(word)) {
+			map.put(location, shard.getPositions(word, location));
+		}
+		return map;
+	}
+
+	@Override
+	public void writeSegment(Path outFile) throws IOException {
+		InvertedIndex copy = new InvertedIndex();
+		for (ThreadedInvertedIndex shard : shards) {
+			copy.addAll(shard);
+		}
+		copy.writeSegment(outFile);
+	}
+
+	@Override
+	public boolean contains(String word) {
+		return shards[shardOf(word)].contains(word);
+	}
+
+	@Override
+	public boolean contains(String word, String path) {
+		return shards[shardOf(word)].contains(word, path);
+	}
+
+	@Override
+	public boolean contains(String word, String path, int position) {
+		return shards[shardOf(word)].contains(word, path, position);
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (ThreadedInvertedIndex shard : shards) {
+			size += shard.size();
+		}
+		return size;
+	}
+
+	@Override
+	public int size(String word) {
+		return shards[shardOf(word)].size(word);
+	}
+
+	@Override
+	public Set<String> getWords() {
+		TreeSet<String> words = new TreeSet<>();
+		for (ThreadedInvertedIndex shard : shards) {
+			words.addAll(shard.getWords());
+		}
+		return Collections.unmodifiableSet(words);
+	}
+
+	@Override
+	public Set<String> getLocations(String word) {
+		return shards[shardOf(word)].getLocations(word);
+	}
+
+	@Override
+	public Set<Integer> getPositions(String word, String location) {
+		return shards[shardOf(word)].getPositions(word, location);
+	}
+
+	@Override
+	public ArrayList<SearchResult> search(Collection<String> queries, boolean exact) {
+		return exact ? exactSearch(queries) : partialSearch(queries);
+	}
+
+	@Override
+	public ArrayList<SearchResult> search(Collection<String> queries, boolean exact, int limit) {
+		return exact ? exactSearch(queries, limit) : partialSearch(queries, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(Collection<String> queries) {
+		return exactMatches(queries).getResults();
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(Collection<String> queries, int limit) {
+		return exactMatches(queries).topResults(limit);
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(Collection<String> queries) {
+		return partialMatches(queries).getResults();
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(Collection<String> queries, int limit) {
+		return partialMatches(queries).topResults(limit);
+	}
+
+	@Override
+	protected void forEachMatch(Collection<String> queries, boolean exact, ObjIntConsumer<String> visitor) {
+		(exact ? exactMatches(queries) : partialMatches(queries)).forEach(visitor);
+	}
+
+	/**
+	 * This function searches each shard for the queries it holds.
+	 *
+	 * @param queries to search
+	 * @return merged matches of every shard
+	 */
+	private LocationMatches exactMatches(Collection<String> queries) {
+		ArrayList<ArrayList<String>> routed = new ArrayList<>(shards.length);
+		for (int i = 0; i < shards.length; i++) {
+			routed.add(new ArrayList<>());
+		}
+		for (String query : queries) {
+			routed.get(shardOf(query)).add(query);
+		}
+
+		LocationMatches matches = new LocationMatches(counts);
+		for (int i = 0; i < shards.length; i++) {
+			if (!routed.get(i).isEmpty()) {
+				shards[i].forEachMatch(routed.get(i), true, matches::add);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * This function searches every shard, since words starting with a query may
+	 * be in any of them.
+	 *
+	 * @param queries to search
+	 * @return merged matches of every shard
+	 */
+	private LocationMatches partialMatches(Collection<String> queries) {
+		LocationMatches matches = new LocationMatches(counts);
+		for (ThreadedInvertedIndex shard : shards) {
+			shard.forEachMatch(queries, false, matches::add);
+		}
+		return matches;
+	}
+}
@@ -10,7 +10,6 @@ import java.util.Collection;
 import java.util.Iterator; //import iterator function.
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 /**
  * Outputs several simple data structures in "pretty" JSON format where
@@ -226,25 +225,37 @@ public class SimpleJsonWriter {
 	 * @param level to indent level
 	 * @throws IOException
 	 */
-	public static void asDoubleNested(TreeMap<String, TreeMap<String, TreeSet<Integer>>> elements, Writer writer, int level) throws IOException {
-		Iterator<String> iterator = elements.keySet().iterator();
+	public static void asDoubleNested(Map<String, ? extends Map<String, ? extends Collection<Integer>>> elements, Writer writer, int level) throws IOException {
+		asDoubleNested(elements.entrySet().iterator(), writer, level);
+	}
+
+	/**
+	 * This function writes the invertedIndex one word at a time from an iterator
+	 * of word and location map entries, so the caller does not need to hold the
+	 * whole index as nested maps.
+	 * @param iterator of entries to write
+	 * @param writer to use
+	 * @param level to indent level
+	 * @throws IOException
+	 */
+	public static void asDoubleNested(Iterator<? extends Map.Entry<String, ? extends Map<String, ? extends Collection<Integer>>>> iterator, Writer writer, int level) throws IOException {
 		writer.write("{");
 		
 		if (iterator.hasNext()) {
-			String key = iterator.next();
+			var entry = iterator.next();
 			writer.write("\n");
 			indent(writer, level + 1);
-			quote(key, writer);
+			quote(entry.getKey(), writer);
 			writer.write(": ");
-			asNestedObject(elements.get(key), writer, level);
+			asNestedObject(entry.getValue(), writer, level);
 		}	
 		while(iterator.hasNext()) {
-			String key = iterator.next();
+			var entry = iterator.next();
 			writer.write(",\n");
 			indent(writer, level + 1);
-			quote(key, writer);
+			quote(entry.getKey(), writer);
 			writer.write(": ");
-			asNestedObject(elements.get(key), writer, level);
+			asNestedObject(entry.getValue(), writer, level);
 		}
 		indent("\n}",writer, level);
 	}
@@ -255,9 +266,19 @@ public class SimpleJsonWriter {
 	 * @param path file path to use
 	 * @throws IOException
 	 */
-	public static void asDoubleNested(TreeMap<String, TreeMap<String, TreeSet<Integer>>> elements, Path path) throws IOException {
+	public static void asDoubleNested(Map<String, ? extends Map<String, ? extends Collection<Integer>>> elements, Path path) throws IOException {
+		asDoubleNested(elements.entrySet().iterator(), path);
+	}
+
+	/**
+	 * This function calls the other invertedIndex method
+	 * @param iterator of entries to write
+	 * @param path file path to use
+	 * @throws IOException
+	 */
+	public static void asDoubleNested(Iterator<? extends Map.Entry<String, ? extends Map<String, ? extends Collection<Integer>>>> iterator, Path path) throws IOException {
 		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
-			asDoubleNested(elements, writer, 0);
+			asDoubleNested(iterator, writer, 0);
 		}
 	}
 	
@@ -0,0 +1,355 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * This is Thread-safe version of InvertedIndex where reads run against
+ * immutable generations. Writers add into a mutable buffer, and every so many
+ * writes the buffer is merged with the current generation into a new one that
+ * is published with a single volatile write. Readers never lock: each call
+ * reads the current generation once and answers from it, so every result is
+ * consistent with one generation and sets it returns never change afterwards.
+ * Writes become visible to readers when the generation they are in is
+ * published, at the latest when {@link #seal()} is called.
+ *
+ * Publishing costs time and memory in the size of the whole index, not of the
+ * buffered writes: the sealed posting lists are shared between generations,
+ * but the term dictionary, document table and the location entries of every
+ * word are copied into the new generation, which lives next to the old one
+ * until readers let go of it. The interval should therefore grow with the
+ * index, and a writer calling {@link #removeAll(Collection)} or
+ * {@link #replaceAll(Collection, InvertedIndex)} for every small change of a
+ * large index pays a full copy each time.
+ *
+ * @author alex
+ */
+public class SnapshotInvertedIndex extends ThreadSafeInvertedIndex {
+
+	/**
+	 * Default number of writes after which a new generation is published.
+	 */
+	public static final int DEFAULT_INTERVAL = 100;
+
+	/**
+	 * Number of writes after which a new generation is published.
+	 */
+	private final int interval;
+
+	/**
+	 * Lock guarding the buffer and the number of writes pending in it.
+	 */
+	private final Object bufferLock;
+
+	/**
+	 * Lock making sure only one generation is built at a time.
+	 */
+	private final Object publishLock;
+
+	/**
+	 * Writes not yet published.
+	 */
+	private InvertedIndex buffer;
+
+	/**
+	 * Number of writes in the buffer.
+	 */
+	private int pending;
+
+	/**
+	 * Current generation, never changed once published.
+	 */
+	private volatile InvertedIndex snapshot;
+
+	/**
+	 * Number of generations published.
+	 */
+	private volatile long generation;
+
+	/**
+	 * This is constructor publishing a new generation every
+	 * {@link #DEFAULT_INTERVAL} writes.
+	 */
+	public SnapshotInvertedIndex() {
+		this(DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * This is constructor publishing a new generation every interval writes.
+	 *
+	 * @param interval number of writes between generations, at least 1
+	 */
+	public SnapshotInvertedIndex(int interval) {
+		super();
+		this.interval = Math.max(interval, 1);
+		this.bufferLock = new Object();
+		this.publishLock = new Object();
+		this.buffer = new InvertedIndex();
+		this.pending = 0;
+		this.snapshot = new InvertedIndex();
+		this.generation = 0;
+	}
+
+	/**
+	 * This function returns how many generations have been published.
+	 *
+	 * @return generation number of what readers currently see
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * This function publishes every buffered write as a new generation. The
+	 * buffer is swapped for an empty one while holding the buffer lock, so
+	 * writers only wait for the swap, not for the new generation to be built.
+	 * The buffer is added to the new generation first, so it owns every
+	 * posting list that needs merging and the lists of the previous generation
+	 * are only shared, never changed. Everything else of the previous
+	 * generation is copied, so this takes time in the size of the whole index.
+	 */
+	public void publish() {
+		synchronized (publishLock) {
+			InvertedIndex delta;
+			synchronized (bufferLock) {
+				if (pending == 0) {
+					return;
+				}
+				delta = buffer;
+				buffer = new InvertedIndex();
+				pending = 0;
+			}
+
+			InvertedIndex next = new InvertedIndex();
+			next.addAll(delta);
+			next.addAll(snapshot);
+			snapshot = next;
+			generation++;
+		}
+	}
+
+	/**
+	 * This function returns true, since replacing publishes one generation.
+	 */
+	@Override
+	public boolean isReplaceAtomic() {
+		return true;
+	}
+
+	/**
+	 * This function publishes a new generation without the locations. Writes
+	 * buffered before the removal are published with it, so they are removed
+	 * too, and writes after it go to the new buffer and are kept.
+	 */
+	@Override
+	public boolean removeAll(Collection<String> removed) {
+		return replace(removed, null);
+	}
+
+	/**
+	 * This function publishes a single generation with the locations removed
+	 * and the other index added, so readers see both changes at once.
+	 */
+	@Override
+	public void replaceAll(Collection<String> removed, InvertedIndex added) {
+		replace(removed, added);
+	}
+
+	/**
+	 * This function publishes a new generation with every buffered write, the
+	 * locations removed and the other index added.
+	 *
+	 * @param removed locations to remove
+	 * @param added   index to add afterwards, or null
+	 * @return true if any location was removed
+	 */
+	private boolean replace(Collection<String> removed, InvertedIndex added) {
+		synchronized (publishLock) {
+			InvertedIndex delta;
+			synchronized (bufferLock) {
+				delta = buffer;
+				buffer = new InvertedIndex();
+				pending = 0;
+			}
+
+			InvertedIndex next = new InvertedIndex();
+			next.addAll(delta);
+			next.addAll(snapshot);
+			boolean changed = next.removeAll(removed);
+			if (added != null) {
+				next.addAll(added);
+			}
+			snapshot = next;
+			generation++;
+			return changed;
+		}
+	}
+
+	/**
+	 * This function publishes a new generation if enough writes are buffered.
+	 */
+	private void publishIfDue() {
+		boolean due;
+		synchronized (bufferLock) {
+			due = pending >= interval;
+		}
+		if (due) {
+			publish();
+		}
+	}
+
+	@Override
+	public void addAll(InvertedIndex other) {
+		synchronized (bufferLock) {
+			buffer.addAll(other);
+			pending++;
+		}
+		publishIfDue();
+	}
+
+	@Override
+	public void addAll(String word, String location, PostingList positions) {
+		synchronized (bufferLock) {
+			buffer.addAll(word, location, positions);
+			pending++;
+		}
+		publishIfDue();
+	}
+
+	@Override
+	public void addAll(String path, String[] element) {
+		addAll(path, element, 1);
+	}
+
+	@Override
+	public void addAll(String path, String[] element, int start) {
+		synchronized (bufferLock) {
+			buffer.addAll(path, element, start);
+			pending++;
+		}
+		publishIfDue();
+	}
+
+	@Override
+	public boolean addEntry(String word, String filename, int position) {
+		boolean added;
+		synchronized (bufferLock) {
+			added = buffer.addEntry(word, filename, position);
+			pending++;
+		}
+		publishIfDue();
+		return added;
+	}
+
+	/**
+	 * This function publishes every buffered write, since sealing marks the end
+	 * of a batch of writes.
+	 */
+	@Override
+	public void seal() {
+		publish();
+	}
+
+	@Override
+	public void forEach(PostingVisitor visitor) {
+		snapshot.forEach(visitor);
+	}
+
+	@Override
+	public void forEach(String word, PostingVisitor visitor) {
+		snapshot.forEach(word, visitor);
+	}
+
+	@Override
+	public Map<String, Integer> getCounts() {
+		return snapshot.getCounts();
+	}
+
+	@Override
+	public void printIndex(Path outFile) throws IOException {
+		snapshot.printIndex(outFile);
+	}
+
+	@Override
+	public void writeSegment(Path outFile) throws IOException {
+		snapshot.writeSegment(outFile);
+	}
+
+	@Override
+	public boolean contains(String word) {
+		return snapshot.contains(word);
+	}
+
+	@Override
+	public boolean contains(String word, String path) {
+		return snapshot.contains(word, path);
+	}
+
+	@Override
+	public boolean contains(String word, String path, int position) {
+		return snapshot.contains(word, path, position);
+	}
+
+	@Override
+	public int size() {
+		return snapshot.size();
+	}
+
+	@Override
+	public int size(String word) {
+		return snapshot.size(word);
+	}
+
+	@Override
+	public Set<String> getWords() {
+		return snapshot.getWords();
+	}
+
+	@Override
+	public Set<String> getLocations(String word) {
+		return snapshot.getLocations(word);
+	}
+
+	@Override
+	public Set<Integer> getPositions(String word, String location) {
+		return snapshot.getPositions(word, location);
+	}
+
+	@Override
+	public ArrayList<SearchResult> search(Collection<String> queries, boolean exact) {
+		return snapshot.search(queries, exact);
+	}
+
+	@Override
+	public ArrayList<SearchResult> search(Collection<String> queries, boolean exact, int limit) {
+		return snapshot.search(queries, exact, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(Collection<String> queries) {
+		return snapshot.exactSearch(queries);
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(Collection<String> queries, int limit) {
+		return snapshot.exactSearch(queries, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(Collection<String> queries) {
+		return snapshot.partialSearch(queries);
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(Collection<String> queries, int limit) {
+		return snapshot.partialSearch(queries, limit);
+	}
+
+	@Override
+	protected void forEachMatch(Collection<String> queries, boolean exact, ObjIntConsumer<String> visitor) {
+		snapshot.forEachMatch(queries, exact, visitor);
+	}
+}
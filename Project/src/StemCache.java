@@ -0,0 +1,219 @@
+import java.util.concurrent.atomic.LongAdder;
+
+import opennlp.tools.stemmer.Stemmer;
+
+/**
+ * A bounded cache of stems shared by many threads. Text is dominated by a few
+ * thousand repeated words, so most tokens are found here instead of being
+ * stemmed again.
+ *
+ * <p>
+ * The cache is a fixed table of word and stem pairs, each word having two
+ * slots next to each other picked by the hash of its characters. A new word
+ * takes the first slot, moving the word there to the second, and a word found
+ * in the second slot moves back to the first, so the cache never grows and
+ * the least recently used word of the two is replaced. Looking up a word takes
+ * no lock and creates no objects, so the reused token of a
+ * {@link TextParser.Tokenizer} can be looked up directly. Pairs never change
+ * once made, so threads may read and replace slots at the same time.
+ *
+ * <p>
+ * Stemmers are not thread-safe, so the cache does not stem by itself: every
+ * thread wraps its own stemmer with {@link #wrap(Stemmer)}, and misses are
+ * stemmed by it. All stemmers of one cache must use the same algorithm.
+ *
+ * @author alex
+ */
+public class StemCache {
+
+	/** Default number of slots. */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	/** The cache shared by every English stemmer. */
+	public static final StemCache ENGLISH = new StemCache(DEFAULT_CAPACITY);
+
+	/** Word and stem pairs, or null for empty slots. */
+	private final Entry[] entries;
+
+	/** Used to pick the slots of a hash: 32 minus the bits of the table size. */
+	private final int shift;
+
+	/** Number of words found in the cache. */
+	private final LongAdder hits;
+
+	/** Number of words stemmed because they were not in the cache. */
+	private final LongAdder misses;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param capacity number of slots, rounded up to a power of two
+	 */
+	public StemCache(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		this.entries = new Entry[size];
+		this.shift = Integer.numberOfLeadingZeros(size) + 1;
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+	/**
+	 * This function returns a stemmer using this cache, stemming misses with the
+	 * given stemmer. The returned stemmer may only be used where the given one
+	 * could be, usually by one thread.
+	 *
+	 * @param stemmer stemmer for words not in the cache
+	 * @return caching stemmer
+	 */
+	public Stemmer wrap(Stemmer stemmer) {
+		return word -> stem(word, stemmer);
+	}
+
+	/**
+	 * This function returns the stem of a word from the cache, or stems it and
+	 * adds it to the cache.
+	 *
+	 * @param word    the word to stem
+	 * @param stemmer stemmer for a word not in the cache
+	 * @return the stem
+	 */
+	public String stem(CharSequence word, Stemmer stemmer) {
+		int hash = hash(word);
+		int first = (hash >>> shift) & ~1;
+
+		Entry entry = entries[first];
+		if (entry != null && entry.hash == hash && entry.matches(word)) {
+			hits.increment();
+			return entry.stem;
+		}
+		Entry second = entries[first + 1];
+		if (second != null && second.hash == hash && second.matches(word)) {
+			// move the word to the first slot, so the least recently used goes next
+			entries[first + 1] = entry;
+			entries[first] = second;
+			hits.increment();
+			return second.stem;
+		}
+
+		misses.increment();
+		String stem = stemmer.stem(word).toString();
+		if (entry != null) {
+			entries[first + 1] = entry;
+		}
+		entries[first] = new Entry(hash, word.toString(), stem);
+		return stem;
+	}
+
+	/**
+	 * This function returns how many words were found in the cache.
+	 *
+	 * @return number of hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * This function returns how many words were stemmed because they were not in
+	 * the cache.
+	 *
+	 * @return number of misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * This function returns the share of words found in the cache.
+	 *
+	 * @return hit rate between 0 and 1, or 0 if nothing was looked up
+	 */
+	public double getHitRate() {
+		long hit = hits.sum();
+		long total = hit + misses.sum();
+		return total == 0 ? 0 : (double) hit / total;
+	}
+
+	/**
+	 * This function returns how many slots hold a word.
+	 *
+	 * @return number of cached words
+	 */
+	public int size() {
+		int size = 0;
+		for (Entry entry : entries) {
+			if (entry != null) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * This function returns the number of slots.
+	 *
+	 * @return capacity
+	 */
+	public int capacity() {
+		return entries.length;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("hits=%d misses=%d hitRate=%.1f%% words=%d/%d", getHits(), getMisses(),
+				getHitRate() * 100, size(), capacity());
+	}
+
+	/**
+	 * This function hashes the characters of a word, mixing the bits so the top
+	 * bits used to pick slots depend on every character.
+	 *
+	 * @param word the word
+	 * @return the hash
+	 */
+	private static int hash(CharSequence word) {
+		int hash = 0;
+		for (int i = 0; i < word.length(); i++) {
+			hash = 31 * hash + word.charAt(i);
+		}
+		return hash * 0x9E3779B9;
+	}
+
+	/**
+	 * A word and its stem.
+	 */
+	private static class Entry {
+
+		/** The hash of the word. */
+		private final int hash;
+
+		/** The word. */
+		private final String word;
+
+		/** The stem of the word. */
+		private final String stem;
+
+		/**
+		 * Creates a pair.
+		 *
+		 * @param hash the hash of the word
+		 * @param word the word
+		 * @param stem the stem of the word
+		 */
+		public Entry(int hash, String word, String stem) {
+			this.hash = hash;
+			this.word = word;
+			this.stem = stem;
+		}
+
+		/**
+		 * This function checks if this pair is for a word.
+		 *
+		 * @param other the word
+		 * @return true if the characters are the same
+		 */
+		public boolean matches(CharSequence other) {
+			return word.contentEquals(other);
+		}
+	}
+}
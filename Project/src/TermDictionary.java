@@ -0,0 +1,118 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * This is term dictionary that interns every word of the inverted index as a
+ * dense int ID, so postings can be keyed by ID instead of by the full word.
+ * Words are kept sorted for printing and partial search.
+ *
+ * @author alex
+ */
+public class TermDictionary {
+
+	/**
+	 * Sorted map from word to its ID.
+	 */
+	private final TreeMap<String, Integer> ids;
+
+	/**
+	 * List of words, indexed by ID.
+	 */
+	private final ArrayList<String> words;
+
+	/**
+	 * This is constructor for the empty dictionary.
+	 */
+	public TermDictionary() {
+		this.ids = new TreeMap<>();
+		this.words = new ArrayList<>();
+	}
+
+	/**
+	 * This function returns the ID of the word, adding the word if it is new.
+	 *
+	 * @param word to intern
+	 * @return ID of the word
+	 */
+	public int add(String word) {
+		Integer id = ids.get(word);
+		if (id == null) {
+			id = words.size();
+			ids.put(word, id);
+			words.add(word);
+		}
+		return id;
+	}
+
+	/**
+	 * This function returns the ID of the word.
+	 *
+	 * @param word to look up
+	 * @return ID of the word, or -1 if not found
+	 */
+	public int get(String word) {
+		Integer id = ids.get(word);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * This function returns the word for an ID.
+	 *
+	 * @param id of the word
+	 * @return the word
+	 */
+	public String getWord(int id) {
+		return words.get(id);
+	}
+
+	/**
+	 * This function removes words from the dictionary. IDs stay dense: the
+	 * words after a removed one move down, keeping their order.
+	 *
+	 * @param removed true for the ID of every word to remove
+	 */
+	public void removeAll(boolean[] removed) {
+		int kept = 0;
+		for (int id = 0; id < words.size(); id++) {
+			String word = words.get(id);
+			if (removed[id]) {
+				ids.remove(word);
+				continue;
+			}
+			words.set(kept, word);
+			ids.put(word, kept);
+			kept++;
+		}
+		words.subList(kept, words.size()).clear();
+	}
+
+	/**
+	 * This function returns how many words are in the dictionary.
+	 *
+	 * @return number of words
+	 */
+	public int size() {
+		return words.size();
+	}
+
+	/**
+	 * This function returns unmodifiable sorted set of words.
+	 *
+	 * @return set of words
+	 */
+	public Set<String> getWords() {
+		return Collections.unmodifiableSet(ids.keySet());
+	}
+
+	/**
+	 * This function returns unmodifiable sorted view of every word and its ID.
+	 *
+	 * @return sorted map of word to ID
+	 */
+	public SortedMap<String, Integer> getIds() {
+		return Collections.unmodifiableSortedMap(ids);
+	}
+}
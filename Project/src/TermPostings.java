@@ -0,0 +1,204 @@
+import java.util.Arrays;
+
+/**
+ * This is postings of a single word: the sorted IDs of every location the
+ * word is found in, each with the posting list of its positions and the term
+ * frequency (number of positions), so scoring never touches the positions.
+ *
+ * @author alex
+ */
+public class TermPostings {
+
+	/**
+	 * Initial capacity of the arrays.
+	 */
+	private static final int INITIAL_CAPACITY = 2;
+
+	/**
+	 * Sorted location IDs.
+	 */
+	private int[] documents;
+
+	/**
+	 * Positions of the word in each location, parallel to documents.
+	 */
+	private PostingList[] positions;
+
+	/**
+	 * Number of positions of the word in each location, parallel to documents.
+	 */
+	private int[] frequencies;
+
+	/**
+	 * Number of locations.
+	 */
+	private int size;
+
+	/**
+	 * This is constructor for the empty postings.
+	 */
+	public TermPostings() {
+		this.documents = new int[INITIAL_CAPACITY];
+		this.positions = new PostingList[INITIAL_CAPACITY];
+		this.frequencies = new int[INITIAL_CAPACITY];
+		this.size = 0;
+	}
+
+	/**
+	 * This function adds a position of the word in a location.
+	 *
+	 * @param document ID of the location
+	 * @param position of the word
+	 * @return true if the position was not already there
+	 */
+	public boolean add(int document, int position) {
+		int index = find(document);
+		if (index < 0) {
+			index = insert(-(index + 1), document, new PostingList());
+		}
+
+		boolean added = positions[index].add(position);
+		frequencies[index] = positions[index].size();
+		return added;
+	}
+
+	/**
+	 * This function merges a posting list into a location. If the location is
+	 * new, the list itself is stored without copying.
+	 *
+	 * @param document ID of the location
+	 * @param list     positions to merge
+	 */
+	public void addAll(int document, PostingList list) {
+		int index = find(document);
+		if (index < 0) {
+			index = insert(-(index + 1), document, list);
+		} else {
+			positions[index].addAll(list);
+		}
+		frequencies[index] = positions[index].size();
+	}
+
+	/**
+	 * This function finds the index of a location, checking the last location
+	 * first since locations are mostly added in increasing order.
+	 *
+	 * @param document ID of the location
+	 * @return index if found, otherwise (-(insertion point) - 1)
+	 */
+	private int find(int document) {
+		if (size == 0 || document > documents[size - 1]) {
+			return -(size + 1);
+		}
+		return Arrays.binarySearch(documents, 0, size, document);
+	}
+
+	/**
+	 * This function inserts a location at an index, growing the arrays if needed.
+	 *
+	 * @param index    to insert at
+	 * @param document ID of the location
+	 * @param list     positions of the location
+	 * @return the index
+	 */
+	private int insert(int index, int document, PostingList list) {
+		if (size == documents.length) {
+			documents = Arrays.copyOf(documents, size * 2);
+			positions = Arrays.copyOf(positions, size * 2);
+			frequencies = Arrays.copyOf(frequencies, size * 2);
+		}
+		System.arraycopy(documents, index, documents, index + 1, size - index);
+		System.arraycopy(positions, index, positions, index + 1, size - index);
+		System.arraycopy(frequencies, index, frequencies, index + 1, size - index);
+		documents[index] = document;
+		positions[index] = list;
+		frequencies[index] = list.size();
+		size++;
+		return index;
+	}
+
+	/**
+	 * This function returns the posting list of a location.
+	 *
+	 * @param document ID of the location
+	 * @return posting list, or null if the word is not in the location
+	 */
+	public PostingList get(int document) {
+		int index = find(document);
+		return index >= 0 ? positions[index] : null;
+	}
+
+	/**
+	 * This function returns how many locations the word is found in.
+	 *
+	 * @return number of locations
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * This function returns the location ID stored at an index.
+	 *
+	 * @param index between 0 and size
+	 * @return location ID
+	 */
+	public int getDocument(int index) {
+		return documents[index];
+	}
+
+	/**
+	 * This function returns the posting list stored at an index.
+	 *
+	 * @param index between 0 and size
+	 * @return posting list
+	 */
+	public PostingList getPositions(int index) {
+		return positions[index];
+	}
+
+	/**
+	 * This function returns the number of positions stored at an index.
+	 *
+	 * @param index between 0 and size
+	 * @return term frequency in the location
+	 */
+	public int getFrequency(int index) {
+		return frequencies[index];
+	}
+
+	/**
+	 * This function renumbers the locations after locations were removed from
+	 * the document table, dropping the removed ones. IDs keep their order, so
+	 * the locations stay sorted.
+	 *
+	 * @param remap new ID of every old ID, or -1 if removed
+	 * @return true if any location was dropped
+	 */
+	public boolean remap(int[] remap) {
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			int document = remap[documents[i]];
+			if (document >= 0) {
+				documents[kept] = document;
+				positions[kept] = positions[i];
+				frequencies[kept] = frequencies[i];
+				kept++;
+			}
+		}
+
+		boolean dropped = kept < size;
+		Arrays.fill(positions, kept, size, null);
+		size = kept;
+		return dropped;
+	}
+
+	/**
+	 * This function seals every posting list.
+	 */
+	public void seal() {
+		for (int i = 0; i < size; i++) {
+			positions[i].seal();
+		}
+	}
+}
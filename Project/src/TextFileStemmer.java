@@ -1,8 +1,5 @@
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
 import java.util.TreeSet;
 
 import opennlp.tools.stemmer.Stemmer;
@@ -32,11 +29,12 @@ public class TextFileStemmer {
 	 * @return a sorted set of unique cleaned and stemmed words
 	 *
 	 * @see SnowballStemmer
+	 * @see StemCache#ENGLISH
 	 * @see #DEFAULT
 	 * @see #uniqueStems(String, Stemmer)
 	 */
 	public static TreeSet<String> uniqueStems(String line) {
-		return uniqueStems(line, new SnowballStemmer(DEFAULT));
+		return uniqueStems(line, StemCache.ENGLISH.wrap(new SnowballStemmer(DEFAULT)));
 	}  
 
 	/**
@@ -48,13 +46,15 @@ public class TextFileStemmer {
 	 * @return a sorted set of unique cleaned and stemmed words
 	 *
 	 * @see Stemmer#stem(CharSequence)
-	 * @see TextParser#parser(String)
+	 * @see TextParser.Tokenizer
 	 */
 	public static TreeSet<String> uniqueStems(String line, Stemmer stemmer) {
 		TreeSet<String> storage = new TreeSet<>(); 
+		TextParser.Tokenizer tokens = new TextParser.Tokenizer();
 	
-		for (String word : TextParser.parser(line)) {
-			storage.add(stemmer.stem(word).toString());
+		tokens.reset(line);
+		while (tokens.next()) {
+			storage.add(stemmer.stem(tokens.token()).toString());
 		}
 
 		return storage;
@@ -62,21 +62,24 @@ public class TextFileStemmer {
 
 	/**
 	 * Reads a file line by line, parses each line into cleaned and stemmed words,
-	 * and then adds those words to a set.
+	 * and then adds those words to a set. The file is streamed, so no line is
+	 * ever held in memory whole.
 	 *
 	 * @param inputFile the input file to parse
 	 * @return a sorted set of stems from file
 	 * @throws IOException if unable to read or parse file
 	 *
-	 * @see #uniqueStems(String)
+	 * @see TextFileTokenizer
 	 * @see TextParser#parser(String)
 	 */
 	public static TreeSet<String> uniqueStems(Path inputFile) throws IOException {
 		TreeSet<String> storage = new TreeSet<>();
-		List<String> lines = Files.readAllLines(inputFile, StandardCharsets.UTF_8);
+		Stemmer stemmer = StemCache.ENGLISH.wrap(new SnowballStemmer(DEFAULT));
 
-		for (String line : lines) {
-			storage.addAll(uniqueStems(line));
+		try (TextFileTokenizer tokens = new TextFileTokenizer(inputFile);) {
+			while (tokens.next()) {
+				storage.add(stemmer.stem(tokens.token()).toString());
+			}
 		}
 		return storage;
 	}
@@ -0,0 +1,374 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cleans and splits a UTF-8 text file line by line like
+ * {@link TextParser#parser(String)}, streaming it instead of reading lines or
+ * the whole file into memory, so a file of any size or line length is read in
+ * fixed memory. Tokens are read one at a time:
+ *
+ * <pre>
+ * try (TextFileTokenizer tokens = new TextFileTokenizer(path)) {
+ * 	while (tokens.next()) {
+ * 		stemmer.stem(tokens.token());
+ * 	}
+ * }
+ * </pre>
+ *
+ * <p>
+ * Small files are read through a large direct buffer kept by each thread, and
+ * big files are memory-mapped a region at a time. Bytes are decoded straight
+ * into a {@link TextParser.Tokenizer} chunk by chunk, and malformed UTF-8
+ * throws like {@link java.nio.file.Files#newBufferedReader(Path)} does.
+ *
+ * <p>
+ * A big file can also be split in parts read by different threads, see
+ * {@link #split(Path, long)}.
+ *
+ * @author alex
+ */
+public class TextFileTokenizer implements Closeable {
+
+	/** Size of the buffer small files are read through. */
+	public static final int BUFFER_SIZE = 1 << 16;
+
+	/** Files of at least this size are memory-mapped instead of read. */
+	public static final long MAP_THRESHOLD = 1 << 24;
+
+	/** Size of each memory-mapped region of a big file. */
+	public static final long MAP_REGION = 1 << 26;
+
+	/** Size of the buffer boundaries are searched through. */
+	private static final int SCAN_SIZE = 1 << 12;
+
+	/** Size of the buffer bytes are decoded into. */
+	private static final int CHARS_SIZE = 1 << 14;
+
+	/** Read buffer of each thread not in use, reused by every file it reads. */
+	private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<>();
+
+	/** The file being read, or null if every byte was read already. */
+	private final FileChannel channel;
+
+	/** Position after the last byte to read. */
+	private final long end;
+
+	/** True if the file is memory-mapped. */
+	private final boolean mapped;
+
+	/** True if {@link #bytes} is the read buffer of the thread. */
+	private final boolean pooled;
+
+	/** Decodes the bytes of the file. */
+	private final CharsetDecoder decoder;
+
+	/** Characters decoded but not yet split. */
+	private final CharBuffer chars;
+
+	/** Splits the decoded characters into tokens. */
+	private final TextParser.Tokenizer tokenizer;
+
+	/** Bytes read but not yet decoded, the thread buffer or a mapped region. */
+	private ByteBuffer bytes;
+
+	/** Position in the file of the first byte after {@link #bytes}. */
+	private long position;
+
+	/** True once every byte was decoded and fed to the tokenizer. */
+	private boolean done;
+
+	/**
+	 * Opens a file to split.
+	 *
+	 * @param path the file to read
+	 * @throws IOException if the file cannot be opened
+	 */
+	public TextFileTokenizer(Path path) throws IOException {
+		this(path, 0, -1);
+	}
+
+	/**
+	 * Opens part of a file to split, from a boundary found by
+	 * {@link #split(Path, long)} up to the next one. Splitting every part
+	 * gives the same tokens as splitting the whole file.
+	 *
+	 * @param path  the file to read
+	 * @param start position of the first byte to read
+	 * @param end   position after the last byte to read, or -1 for the end of
+	 *              the file
+	 * @throws IOException if the file cannot be opened
+	 */
+	public TextFileTokenizer(Path path, long start, long end) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.end = end < 0 ? channel.size() : Math.min(end, channel.size());
+		this.mapped = this.end - start >= MAP_THRESHOLD;
+		this.decoder = StandardCharsets.UTF_8.newDecoder();
+		this.chars = CharBuffer.allocate(CHARS_SIZE);
+		this.tokenizer = new TextParser.Tokenizer();
+		this.position = start;
+		this.done = false;
+		this.pooled = !mapped;
+
+		if (mapped) {
+			this.bytes = ByteBuffer.allocate(0);
+		} else {
+			// a file opened while another is read by the thread gets its own buffer
+			ByteBuffer buffer = BUFFERS.get();
+			BUFFERS.remove();
+			this.bytes = buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+			bytes.clear().flip();
+		}
+		tokenizer.start(true, startsLine(channel, start));
+		chars.flip();
+		tokenizer.feed(chars, false);
+	}
+
+	/**
+	 * Splits bytes of a file read already, such as a part between two
+	 * boundaries found by {@link #split(Path, long)}.
+	 *
+	 * @param bytes     the bytes to decode and split, which must not change
+	 * @param lineStart false if the bytes start after a token of their line,
+	 *                  see {@link #startsLine(FileChannel, long)}
+	 */
+	public TextFileTokenizer(ByteBuffer bytes, boolean lineStart) {
+		this.channel = null;
+		this.end = 0;
+		this.mapped = false;
+		this.pooled = false;
+		this.decoder = StandardCharsets.UTF_8.newDecoder();
+		this.chars = CharBuffer.allocate(CHARS_SIZE);
+		this.tokenizer = new TextParser.Tokenizer();
+		this.position = 0;
+		this.done = false;
+		this.bytes = bytes;
+
+		tokenizer.start(true, lineStart);
+		chars.flip();
+		tokenizer.feed(chars, false);
+	}
+
+	/**
+	 * This function checks if a part of a file starting at a position starts a
+	 * line, or starts after a token of its line.
+	 *
+	 * @param channel  the file
+	 * @param position of the first byte of the part
+	 * @return true if the part starts a line
+	 * @throws IOException if the file cannot be read
+	 */
+	public static boolean startsLine(FileChannel channel, long position) throws IOException {
+		return position == 0 || isLineBreak(byteAt(channel, position - 1));
+	}
+
+	/**
+	 * This function finds where to split a file into parts of about the given
+	 * size that can be split into tokens independently. A part starts after a
+	 * line break, or after a space that follows an ASCII letter, so a token
+	 * was already found on its line and the start of the line no longer
+	 * matters. These bytes never occur inside other UTF-8 characters.
+	 *
+	 * @param path the file to split
+	 * @param size the size of each part
+	 * @return positions of the boundaries, starting with 0 and ending with the
+	 *         size of the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public static long[] split(Path path, long size) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long length = channel.size();
+			List<Long> boundaries = new ArrayList<>();
+			boundaries.add(0L);
+
+			ByteBuffer buffer = ByteBuffer.allocate(SCAN_SIZE);
+			long next = size;
+			while (next < length) {
+				long boundary = boundary(channel, next, length, buffer);
+				if (boundary < length) {
+					boundaries.add(boundary);
+				}
+				next = boundary + size;
+			}
+
+			boundaries.add(length);
+			return boundaries.stream().mapToLong(Long::longValue).toArray();
+		}
+	}
+
+	/**
+	 * This function finds the first boundary at or after a position.
+	 *
+	 * @param channel the file
+	 * @param from    position to search from
+	 * @param length  size of the file
+	 * @param buffer  buffer to read the file through
+	 * @return position of the boundary, or the size of the file if there is
+	 *         none
+	 * @throws IOException if the file cannot be read
+	 */
+	private static long boundary(FileChannel channel, long from, long length, ByteBuffer buffer)
+			throws IOException {
+		byte previous = byteAt(channel, from - 1);
+		long position = from;
+		while (position < length) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				byte current = buffer.get(i);
+				if (current == '\n' || (current == ' ' && isLetter(previous))) {
+					return position + i + 1;
+				}
+				previous = current;
+			}
+			position += read;
+		}
+		return length;
+	}
+
+	/**
+	 * This function reads one byte of a file.
+	 *
+	 * @param channel  the file
+	 * @param position of the byte
+	 * @return the byte, or 0 if there is none
+	 * @throws IOException if the file cannot be read
+	 */
+	private static byte byteAt(FileChannel channel, long position) throws IOException {
+		ByteBuffer one = ByteBuffer.allocate(1);
+		return position >= 0 && channel.read(one, position) == 1 ? one.get(0) : 0;
+	}
+
+	/**
+	 * @param b a byte
+	 * @return true if the byte ends a line
+	 */
+	private static boolean isLineBreak(byte b) {
+		return b == '\n' || b == '\r';
+	}
+
+	/**
+	 * @param b a byte
+	 * @return true if the byte is an ASCII letter
+	 */
+	private static boolean isLetter(byte b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+	}
+
+	/**
+	 * Finds the next token, reading more of the file when needed.
+	 *
+	 * @return true if there is another token, false at the end of the file
+	 * @throws IOException if the file cannot be read or is not valid UTF-8
+	 */
+	public boolean next() throws IOException {
+		if (bytes == null) {
+			throw new IOException("File is closed");
+		}
+		while (!tokenizer.next()) {
+			if (done) {
+				return false;
+			}
+			decode();
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the token found by the last call to {@link #next()}. The token is
+	 * reused, so it changes on the next call.
+	 *
+	 * @return the current token
+	 */
+	public CharSequence token() {
+		return tokenizer.token();
+	}
+
+	/**
+	 * This function decodes the next chunk of characters and feeds it to the
+	 * tokenizer, reading more bytes when they run out.
+	 *
+	 * @throws IOException if the file cannot be read or is not valid UTF-8
+	 */
+	private void decode() throws IOException {
+		chars.clear();
+		while (true) {
+			boolean end = !fill();
+			CoderResult result = decoder.decode(bytes, chars, end);
+			if (result.isError()) {
+				result.throwException();
+			}
+			if (result.isOverflow()) {
+				break;
+			}
+			if (end) {
+				decoder.flush(chars);
+				done = true;
+				break;
+			}
+			if (chars.position() > 0) {
+				break;
+			}
+		}
+		chars.flip();
+		tokenizer.feed(chars, done);
+	}
+
+	/**
+	 * This function reads or maps the next part of the file once the bytes left
+	 * may not hold a whole character.
+	 *
+	 * @return true if more of the file is left to read
+	 * @throws IOException if the file cannot be read
+	 */
+	private boolean fill() throws IOException {
+		if (channel == null || bytes.remaining() >= 4 || position >= end) {
+			return position < end;
+		}
+
+		if (mapped) {
+			// map from the first byte not decoded, so characters are never split
+			long start = position - bytes.remaining();
+			long length = Math.min(MAP_REGION, end - start);
+			bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			position = start + length;
+		} else {
+			bytes.compact();
+			if (end - position < bytes.remaining()) {
+				bytes.limit(bytes.position() + (int) (end - position));
+			}
+			int read = channel.read(bytes, position);
+			bytes.flip();
+			position = read < 0 ? end : position + read;
+		}
+		return position < end;
+	}
+
+	/**
+	 * Closes the file. The thread may reuse its read buffer for the next file.
+	 *
+	 * @throws IOException if the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		if (pooled && bytes != null) {
+			BUFFERS.set(bytes);
+		}
+		bytes = null;
+		if (channel != null) {
+			channel.close();
+		}
+	}
+}
@@ -53,4 +53,287 @@ public class TextParser {
 	public static String[] parser(String text) {
 		return split(clean(text));
 	}
+
+	/**
+	 * Cleans and splits text like {@link #parser(String)} in a single pass over
+	 * its characters, reusing one buffer for every token instead of creating
+	 * the intermediate strings and array of the regular expressions. Tokens are
+	 * read one at a time:
+	 *
+	 * <pre>
+	 * tokenizer.reset(line);
+	 * while (tokenizer.next()) {
+	 * 	stemmer.stem(tokenizer.token());
+	 * }
+	 * </pre>
+	 *
+	 * <p>
+	 * Text is split at whitespace into segments. Characters below
+	 * {@link #FOLDED} are cleaned with a table built from {@link #clean(String)}
+	 * itself, so each maps to exactly what the regular expressions make of it.
+	 * A segment with any other character, whose cleaning may depend on its
+	 * neighbours, is cleaned with {@link #clean(String)} instead. Whitespace
+	 * never changes how its neighbours are cleaned, so the tokens are always
+	 * identical to {@link #parser(String)} of each line.
+	 *
+	 * <p>
+	 * Text may also be fed in chunks that split lines and tokens anywhere, as
+	 * {@link TextFileTokenizer} does, so a line is never held in memory whole.
+	 */
+	public static final class Tokenizer {
+
+		/** Characters cleaned with the table, Latin letters and below. */
+		public static final int FOLDED = 0x250;
+
+		/** What each character below {@link #FOLDED} is cleaned into, or null. */
+		private static final char[][] FOLD = new char[FOLDED][];
+
+		/** True for whitespace characters below {@link #FOLDED}. */
+		private static final boolean[] SPACE = new boolean[FOLDED];
+
+		static {
+			for (char c = 0; c < FOLDED; c++) {
+				SPACE[c] = SPLIT_REGEX.matcher(String.valueOf(c)).matches();
+			}
+			for (char c = 0; c < FOLDED; c++) {
+				if (!SPACE[c]) {
+					String cleaned = clean(String.valueOf(c));
+					if (cleaned.chars().noneMatch(x -> isSpace((char) x))) {
+						FOLD[c] = cleaned.toCharArray();
+					}
+				}
+			}
+		}
+
+		/** The token being built, or found by the last call to {@link #next()}. */
+		private final StringBuilder token;
+
+		/** Start of a segment not cleaned with the table, from earlier chunks. */
+		private final StringBuilder raw;
+
+		/** The token returned by {@link #token()}. */
+		private CharSequence current;
+
+		/** The text being split. */
+		private CharSequence text;
+
+		/** Position of the next character to read. */
+		private int position;
+
+		/** True if no text follows the current text. */
+		private boolean last;
+
+		/** True if line breaks start new lines, false if the text is one line. */
+		private boolean lines;
+
+		/** True while inside a segment. */
+		private boolean segment;
+
+		/** Start of the segment in the current text. */
+		private int start;
+
+		/** True if the segment has characters not cleaned with the table. */
+		private boolean slow;
+
+		/** True until the line has anything but stripped whitespace. */
+		private boolean lineStart;
+
+		/** True if the line starts with whitespace that is split on but not stripped. */
+		private boolean leadingEmpty;
+
+		/** True if a token is held back after returning an empty token. */
+		private boolean held;
+
+		/**
+		 * Creates a tokenizer with no text.
+		 */
+		public Tokenizer() {
+			this.token = new StringBuilder();
+			this.raw = new StringBuilder();
+			reset("");
+		}
+
+		/**
+		 * Starts splitting a single line of text.
+		 *
+		 * @param line the text to clean and split
+		 */
+		public void reset(CharSequence line) {
+			start(false);
+			feed(line, true);
+		}
+
+		/**
+		 * Starts splitting text of many lines, splitting each line like
+		 * {@link #parser(String)} would. Lines end at line feeds, carriage returns
+		 * or both, like {@link java.io.BufferedReader#readLine()}.
+		 *
+		 * @param text the text to clean and split
+		 */
+		public void resetText(CharSequence text) {
+			start(true);
+			feed(text, true);
+		}
+
+		/**
+		 * Starts splitting text that will be fed in chunks.
+		 *
+		 * @param lines true if line breaks start new lines
+		 */
+		void start(boolean lines) {
+			start(lines, true);
+		}
+
+		/**
+		 * Starts splitting text that will be fed in chunks, which may start in
+		 * the middle of a line after a token was already found on it.
+		 *
+		 * @param lines     true if line breaks start new lines
+		 * @param lineStart false if the text starts after a token of its line
+		 */
+		void start(boolean lines, boolean lineStart) {
+			this.lines = lines;
+			this.current = token;
+			this.segment = false;
+			this.slow = false;
+			this.lineStart = lineStart;
+			this.leadingEmpty = false;
+			this.held = false;
+			token.setLength(0);
+			raw.setLength(0);
+		}
+
+		/**
+		 * Feeds the next chunk of text. The previous chunk must be used up, that
+		 * is {@link #next()} returned false.
+		 *
+		 * @param chunk the text, which must not change until used up
+		 * @param last  true if no text follows
+		 */
+		void feed(CharSequence chunk, boolean last) {
+			this.text = chunk;
+			this.position = 0;
+			this.last = last;
+			this.start = 0;
+		}
+
+		/**
+		 * Finds the next token.
+		 *
+		 * @return true if there is another token, false at the end of the text
+		 */
+		public boolean next() {
+			if (held) {
+				held = false;
+				current = token;
+				return true;
+			}
+
+			int length = text.length();
+			while (position < length) {
+				char c = text.charAt(position);
+
+				if (isSpace(c)) {
+					if (segment && endSegment()) {
+						return true;
+					}
+					if (lines && (c == '\n' || c == '\r')) {
+						lineStart = true;
+						leadingEmpty = false;
+					} else if (lineStart && !Character.isWhitespace(c)) {
+						// split on like whitespace, but not stripped like it
+						lineStart = false;
+						leadingEmpty = true;
+					}
+					position++;
+					continue;
+				}
+
+				if (!segment) {
+					segment = true;
+					start = position;
+					slow = false;
+					token.setLength(0);
+				}
+				if (!slow) {
+					char[] folded = c < FOLDED ? FOLD[c] : null;
+					if (folded == null) {
+						slow = true;
+					} else {
+						token.append(folded);
+					}
+				}
+				position++;
+			}
+
+			if (segment) {
+				if (last) {
+					return endSegment();
+				}
+				raw.append(text, start, length);
+			}
+			return false;
+		}
+
+		/**
+		 * Ends the segment before the current position, cleaning it if it was
+		 * not cleaned with the table.
+		 *
+		 * @return true if the segment is a token
+		 */
+		private boolean endSegment() {
+			segment = false;
+			if (slow) {
+				raw.append(text, start, position);
+				token.setLength(0);
+				token.append(clean(raw.toString()));
+			}
+			raw.setLength(0);
+
+			if (token.length() == 0) {
+				return false;
+			}
+
+			lineStart = false;
+			if (leadingEmpty) {
+				leadingEmpty = false;
+				held = true;
+				current = "";
+			} else {
+				current = token;
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the token found by the last call to {@link #next()}. The token
+		 * is reused, so it changes on the next call.
+		 *
+		 * @return the current token
+		 */
+		public CharSequence token() {
+			return current;
+		}
+
+		/**
+		 * This function checks if a character is whitespace the way
+		 * {@link #SPLIT_REGEX} matches it.
+		 *
+		 * @param c the character
+		 * @return true if whitespace
+		 */
+		private static boolean isSpace(char c) {
+			if (c < FOLDED) {
+				return SPACE[c];
+			}
+			switch (Character.getType(c)) {
+			case Character.SPACE_SEPARATOR:
+			case Character.LINE_SEPARATOR:
+			case Character.PARAGRAPH_SEPARATOR:
+				return true;
+			default:
+				return false;
+			}
+		}
+	}
 }
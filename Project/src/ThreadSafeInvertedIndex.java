@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * This is the common type of the inverted indexes that are safe to use from
+ * many threads, which the threaded builders, the web crawler and the directory
+ * watcher depend on. Every implementation keeps its postings in its own
+ * structures, so none of the state of a plain {@link InvertedIndex} is
+ * created, and every method using that state is abstract again here, so an
+ * implementation can not silently inherit a method that would read the empty
+ * state instead of its own.
+ *
+ * @author alex
+ */
+public abstract class ThreadSafeInvertedIndex extends InvertedIndex {
+
+	/**
+	 * This is constructor for an index keeping its postings elsewhere.
+	 */
+	protected ThreadSafeInvertedIndex() {
+		super(null, null, null);
+	}
+
+	/**
+	 * This function tells if {@link #replaceAll(Collection, InvertedIndex)} is
+	 * seen by searches all at once, so a location being replaced is never
+	 * missing from results, which a {@link DirectoryWatcher} relies on.
+	 *
+	 * @return true if replacing is atomic
+	 */
+	public abstract boolean isReplaceAtomic();
+
+	@Override
+	public abstract void addAll(InvertedIndex other);
+
+	@Override
+	public abstract void addAll(String word, String location, PostingList positions);
+
+	@Override
+	public abstract void forEach(PostingVisitor visitor);
+
+	@Override
+	public abstract void forEach(String word, PostingVisitor visitor);
+
+	@Override
+	public abstract void addAll(String path, String[] element, int start);
+
+	@Override
+	public abstract boolean addEntry(String element, String path, int position);
+
+	@Override
+	public abstract boolean removeAll(Collection<String> removed);
+
+	@Override
+	public abstract void replaceAll(Collection<String> removed, InvertedIndex added);
+
+	@Override
+	public abstract void seal();
+
+	@Override
+	public abstract Map<String, Integer> getCounts();
+
+	@Override
+	public abstract void printIndex(Path outFile) throws IOException;
+
+	@Override
+	public abstract void writeSegment(Path outFile) throws IOException;
+
+	@Override
+	public abstract boolean contains(String word);
+
+	@Override
+	public abstract boolean contains(String word, String path);
+
+	@Override
+	public abstract boolean contains(String word, String path, int index);
+
+	@Override
+	public abstract int size();
+
+	@Override
+	public abstract int size(String word);
+
+	@Override
+	public abstract Set<String> getWords();
+
+	@Override
+	public abstract Set<String> getLocations(String word);
+
+	@Override
+	public abstract Set<Integer> getPositions(String word, String location);
+
+	@Override
+	public abstract ArrayList<SearchResult> exactSearch(Collection<String> queries);
+
+	@Override
+	public abstract ArrayList<SearchResult> exactSearch(Collection<String> queries, int limit);
+
+	@Override
+	public abstract ArrayList<SearchResult> partialSearch(Collection<String> queries);
+
+	@Override
+	public abstract ArrayList<SearchResult> partialSearch(Collection<String> queries, int limit);
+
+	@Override
+	protected abstract void forEachMatch(Collection<String> queries, boolean exact, ObjIntConsumer<String> visitor);
+}
@@ -1,74 +1,224 @@
 import java.io.IOException;
+import java.lang.invoke.VarHandle;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.IntSupplier;
+import java.util.function.ObjIntConsumer;
 
 /**
- * This is Thread-safe version of InvertedIndex using read-write lock.
+ * This is Thread-safe version of InvertedIndex using read-write lock around a
+ * plain index. Looking up a word and the number of words are first tried
+ * without the lock and checked against a version stamp that writers change
+ * before and after every write, taking the read lock only if a write got in
+ * the way. These lookups only read the immutable prefix dictionary and the
+ * size of the index, never a map a writer may be changing, so a lookup racing
+ * a write can return a wrong answer but never fail or loop.
  *  
  * @author alex
  */
-public class ThreadedInvertedIndex extends InvertedIndex {
+public class ThreadedInvertedIndex extends ThreadSafeInvertedIndex {
+	/**
+	 * This is the plain index guarded by the lock.
+	 */
+	private final InvertedIndex index;
+
 	/**
 	 * This is lock object that will be used for multithreading.
 	 */
 	private final SimpleReadWriteLock lock;
 
 	/**
-	 * This function initialized the Thread-safe Inverted Index;
+	 * This is version stamp for optimistic reads, odd while a write is running.
+	 */
+	private volatile long version;
+
+	/**
+	 * This is how deep the writing thread is in nested writes, only used while
+	 * holding the write lock.
+	 */
+	private int writeDepth;
+
+	/**
+	 * This function initialized the Thread-safe Inverted Index with a
+	 * writer-preferring lock, so searches can not starve writers.
 	 */
 	public ThreadedInvertedIndex() {
+		this(new FairReadWriteLock());
+	}
+
+	/**
+	 * This function initialized the Thread-safe Inverted Index with the given
+	 * lock.
+	 * 
+	 * @param lock to guard the index with
+	 */
+	public ThreadedInvertedIndex(SimpleReadWriteLock lock) {
 		super();
-		lock = new SimpleReadWriteLock();
+		this.index = new InvertedIndex();
+		this.lock = lock;
+		this.version = 0;
+		this.writeDepth = 0;
+	}
+
+	/**
+	 * This function takes the write lock and marks the version as being
+	 * written, once for the outermost of nested writes.
+	 */
+	private void lockWrite() {
+		lock.writeLock().lock();
+		if (writeDepth++ == 0) {
+			version++;
+			// the writes of the index must not become visible before the odd version
+			VarHandle.storeStoreFence();
+		}
+	}
+
+	/**
+	 * This function marks the version as written and releases the write lock.
+	 */
+	private void unlockWrite() {
+		if (--writeDepth == 0) {
+			version++;
+		}
+		lock.writeLock().unlock();
+	}
+
+	/**
+	 * This function runs a lookup without the lock. The lookup must only read
+	 * structures that are never changed once published.
+	 *
+	 * @param read the lookup
+	 * @return result of the lookup, or {@link #STALE} if a write was running or
+	 *         happened meanwhile
+	 */
+	private int optimisticRead(IntSupplier read) {
+		long stamp = version;
+		if ((stamp & 1) == 0) {
+			int result = read.getAsInt();
+			VarHandle.acquireFence();
+			if (version == stamp) {
+				return result;
+			}
+		}
+		return STALE;
 	}
 	
+	/**
+	 * This function returns true, since replacing holds the write lock.
+	 */
+	@Override
+	public boolean isReplaceAtomic() {
+		return true;
+	}
+
 	@Override
 	public void addAll(InvertedIndex other) {
-		lock.writeLock().lock();
+		lockWrite();
 		try {
-			super.addAll(other);
+			index.addAll(other);
 		} finally {
-			lock.writeLock().unlock();
+			unlockWrite();
 		}
 	}
 	
+	@Override
+	public void addAll(String word, String location, PostingList positions) {
+		lockWrite();
+		try {
+			index.addAll(word, location, positions);
+		} finally {
+			unlockWrite();
+		}
+	}
+
+	@Override
+	public void forEach(PostingVisitor visitor) {
+		lock.readLock().lock();
+		try {
+			index.forEach(visitor);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void forEach(String word, PostingVisitor visitor) {
+		lock.readLock().lock();
+		try {
+			index.forEach(word, visitor);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	@Override
 	public void addAll(String path, String[] element) {
-		lock.writeLock().lock();
+		lockWrite();
 		try {
-			super.addAll(path, element);
+			index.addAll(path, element);
 		} finally {
-			lock.writeLock().unlock();
+			unlockWrite();
 		}
 	}
 
 	@Override
 	public void addAll(String path, String[] element, int start) {
-		lock.writeLock().lock();
+		lockWrite();
 		try {
-			super.addAll(path, element, start);
+			index.addAll(path, element, start);
 		} finally {
-			lock.writeLock().unlock();
+			unlockWrite();
 		}
 	}
 
 	@Override
 	public boolean addEntry(String word, String filename, int position) {
-		lock.writeLock().lock();
+		lockWrite();
 		try {
-			return super.addEntry(word, filename, position);
+			return index.addEntry(word, filename, position);
 		} finally {
-			lock.writeLock().unlock();
+			unlockWrite();
 		}
 	}
 	
+	@Override
+	public boolean removeAll(Collection<String> removed) {
+		lockWrite();
+		try {
+			return index.removeAll(removed);
+		} finally {
+			unlockWrite();
+		}
+	}
+
+	@Override
+	public void replaceAll(Collection<String> removed, InvertedIndex added) {
+		lockWrite();
+		try {
+			index.replaceAll(removed, added);
+		} finally {
+			unlockWrite();
+		}
+	}
+
+	@Override
+	public void seal() {
+		lockWrite();
+		try {
+			index.seal();
+		} finally {
+			unlockWrite();
+		}
+	}
+
 	@Override
 	public Map<String, Integer> getCounts() {
 		lock.readLock().lock();
 		try {
-			return super.getCounts();
+			return index.getCounts();
 		} finally {
 			lock.readLock().unlock();
 		}
@@ -78,17 +228,36 @@ public class ThreadedInvertedIndex extends InvertedIndex {
 	public void printIndex(Path outputFile) throws IOException {
 		lock.readLock().lock();
 		try {
-			super.printIndex(outputFile);
+			index.printIndex(outputFile);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void writeSegment(Path outputFile) throws IOException {
+		lock.readLock().lock();
+		try {
+			index.writeSegment(outputFile);
 		} finally {
 			lock.readLock().unlock();
 		}
 	}
 
+	/**
+	 * This function looks the word up in the prefix dictionary without the
+	 * lock if it is current, otherwise under the read lock.
+	 */
 	@Override
 	public boolean contains(String word) {
+		int term = optimisticRead(() -> index.lookup(word));
+		if (term != STALE) {
+			return term >= 0;
+		}
+
 		lock.readLock().lock();
 		try {
-			return super.contains(word);
+			return index.contains(word);
 		} finally {
 			lock.readLock().unlock();
 		}
@@ -98,16 +267,17 @@ public class ThreadedInvertedIndex extends InvertedIndex {
 	public boolean contains(String word, String location) {
 		lock.readLock().lock();
 		try {
-			return super.contains(word, location);
+			return index.contains(word, location);
 		} finally {
 			lock.readLock().unlock();
 		}
 	}
+
 	@Override
-	public boolean contains(String word, String path, int index) {
+	public boolean contains(String word, String path, int position) {
 		lock.readLock().lock();
 		try {
-			return super.contains(word, path, index);
+			return index.contains(word, path, position);
 		} finally {
 			lock.readLock().unlock();
 		}
@@ -115,9 +285,14 @@ public class ThreadedInvertedIndex extends InvertedIndex {
 	
 	@Override
 	public int size() {
+		int size = optimisticRead(index::size);
+		if (size != STALE) {
+			return size;
+		}
+
 		lock.readLock().lock();
 		try {
-			return super.size();
+			return index.size();
 		} finally {
 			lock.readLock().unlock();
 		}
@@ -127,7 +302,7 @@ public class ThreadedInvertedIndex extends InvertedIndex {
 	public int size(String word) {
 		lock.readLock().lock();
 		try {
-			return super.size(word);
+			return index.size(word);
 		} finally {
 			lock.readLock().unlock();
 		}
@@ -137,7 +312,7 @@ public class ThreadedInvertedIndex extends InvertedIndex {
 	public Set<String> getWords() {
 		lock.readLock().lock();
 		try {
-			return super.getWords();
+			return index.getWords();
 		} finally {
 			lock.readLock().unlock();
 		}
@@ -146,7 +321,7 @@ public class ThreadedInvertedIndex extends InvertedIndex {
 	public Set<String> getLocations(String word) {
 		lock.readLock().lock();
 		try {
-			return super.getLocations(word);
+			return index.getLocations(word);
 		} finally {
 			lock.readLock().unlock();
 		}
@@ -156,7 +331,7 @@ public class ThreadedInvertedIndex extends InvertedIndex {
 	public Set<Integer> getPositions(String word, String location) {
 		lock.readLock().lock();
 		try {
-			return super.getPositions(word, location);
+			return index.getPositions(word, location);
 		} finally {
 			lock.readLock().unlock();
 		}
@@ -166,7 +341,7 @@ public class ThreadedInvertedIndex extends InvertedIndex {
 	public ArrayList<SearchResult> exactSearch(Collection<String> queries) {
 		lock.readLock().lock();
 		try {
-			return super.exactSearch(queries);
+			return index.exactSearch(queries);
 		} finally {
 			lock.readLock().unlock();
 		}
@@ -176,7 +351,37 @@ public class ThreadedInvertedIndex extends InvertedIndex {
 	public ArrayList<SearchResult> partialSearch(Collection<String> queries) {
 		lock.readLock().lock();
 		try {
-			return super.partialSearch(queries);
+			return index.partialSearch(queries);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(Collection<String> queries, int limit) {
+		lock.readLock().lock();
+		try {
+			return index.exactSearch(queries, limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(Collection<String> queries, int limit) {
+		lock.readLock().lock();
+		try {
+			return index.partialSearch(queries, limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	protected void forEachMatch(Collection<String> queries, boolean exact, ObjIntConsumer<String> visitor) {
+		lock.readLock().lock();
+		try {
+			index.forEachMatch(queries, exact, visitor);
 		} finally {
 			lock.readLock().unlock();
 		}
@@ -1,5 +1,10 @@
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class is to build a InvertedIndex as threaded version.
@@ -12,38 +17,164 @@ public class ThreadedInvertedIndexBuilder extends InvertedIndexBuilder {
 	/**
 	 * The Inverted Index to populate.
 	 */
-	private final ThreadedInvertedIndex invertedIndex;
+	private final ThreadSafeInvertedIndex invertedIndex;
 	
 	/**
 	 * The number or threads.
 	 */
 	private final int numThreads;
 
+	/**
+	 * The work queue shared with the rest of the application, or null to start
+	 * a work queue for every build.
+	 */
+	private final WorkQueue workQueue;
+
+	/**
+	 * Default size of the parts big files are split in, so one big file is
+	 * indexed by many threads instead of one.
+	 */
+	public static final long DEFAULT_CHUNK_SIZE = 1 << 23;
+
+	/**
+	 * Size of the parts files larger than it are split in.
+	 */
+	private volatile long chunkSize;
+
+	/**
+	 * Local index waiting for another one to be merged with, or null.
+	 */
+	private InvertedIndex waiting;
+
 	/**
 	 * Constructof for the ThreadedInvertedIndexBuilder
 	 * @param invertedIndex
 	 * @param numThreads 
 	 */
-	public ThreadedInvertedIndexBuilder(ThreadedInvertedIndex invertedIndex, int numThreads) {
+	public ThreadedInvertedIndexBuilder(ThreadSafeInvertedIndex invertedIndex, int numThreads) {
 		super(invertedIndex);
 		this.invertedIndex = invertedIndex;
 		this.numThreads = numThreads;
+		this.workQueue = null;
+		this.chunkSize = DEFAULT_CHUNK_SIZE;
+	}
+
+	/**
+	 * Constructor for a builder running on a shared work queue, which is left
+	 * running after every build.
+	 * @param invertedIndex
+	 * @param workQueue the shared work queue
+	 */
+	public ThreadedInvertedIndexBuilder(ThreadSafeInvertedIndex invertedIndex, WorkQueue workQueue) {
+		super(invertedIndex);
+		this.invertedIndex = invertedIndex;
+		this.numThreads = workQueue.size();
+		this.workQueue = workQueue;
+		this.chunkSize = DEFAULT_CHUNK_SIZE;
+	}
+
+	/**
+	 * This function sets the size of the parts big files are split in. Files
+	 * larger than it are indexed by many tasks at once.
+	 *
+	 * @param chunkSize size of each part in bytes
+	 */
+	public void setChunkSize(long chunkSize) {
+		this.chunkSize = Math.max(chunkSize, 1);
 	}
 	
+	/**
+	 * This function builds every text file into local indexes that are merged
+	 * with each other in parallel, then adds the single merged index to the
+	 * inverted index, so it is locked once instead of once per file. Files
+	 * larger than the chunk size are split in parts built by separate tasks.
+	 * A file that can not be read is left out whole and reported by
+	 * {@link #getFailed()}, and whatever was built is always added, even if
+	 * adding the tasks failed halfway.
+	 */
 	@Override
-	public void traversePath(Path path) throws IOException {
-		WorkQueue queue = new WorkQueue(numThreads);
-		for (Path currentPath : getTextFiles(path)) {
-			if(isTextFile(currentPath)) {
-				queue.execute(new Task(currentPath));
-			}
+	public void addFiles(List<Path> paths) throws IOException {
+		clearFailed();
+		synchronized (this) {
+			waiting = null;
 		}
+		WorkQueue queue = workQueue != null ? workQueue : new WorkQueue(numThreads);
+		WorkQueue.Group files = queue.newGroup();
 		try {
-			queue.finish();
-		} catch (Exception e) {
-			System.out.println("The work queue encountered an error.");
+			for (Path currentPath : paths) {
+				if(isTextFile(currentPath)) {
+					files.execute(new Task(currentPath, files));
+				} else if (Files.notExists(currentPath)) {
+					// deleted since it was listed
+					failed(currentPath);
+				}
+			}
+		} finally {
+			try {
+				files.finish();
+			} catch (Exception e) {
+				System.out.println("The work queue encountered an error.");
+			}
+			if (queue != workQueue) {
+				queue.shutdown();
+			}
+
+			InvertedIndex merged;
+			synchronized (this) {
+				merged = waiting;
+				waiting = null;
+			}
+			if (merged != null) {
+				invertedIndex.addAll(merged);
+			}
+			invertedIndex.seal();
+		}
+	}
+
+	/**
+	 * This function splits a big file in parts and adds a task for each part.
+	 * 
+	 * @param path  the big file
+	 * @param files group the tasks are added to
+	 * @throws IOException if the file can not be split
+	 */
+	private void addChunks(Path path, WorkQueue.Group files) throws IOException {
+		long[] boundaries = TextFileTokenizer.split(path, chunkSize);
+
+		Chunks chunks = new Chunks(path, boundaries.length - 1);
+		for (int i = 0; i < boundaries.length - 1; i++) {
+			files.execute(new Chunk(chunks, i, boundaries[i], boundaries[i + 1]));
+		}
+	}
+
+	/**
+	 * This function merges a finished local index into the others. If another
+	 * local index is waiting, the two are merged outside the lock and the
+	 * result is merged again, otherwise this one waits. Merges of different
+	 * pairs run in parallel on the worker threads, like a reduction tree, and
+	 * at most one local index is ever waiting.
+	 * 
+	 * @param local the finished local index
+	 */
+	private void merge(InvertedIndex local) {
+		while (true) {
+			InvertedIndex other;
+			synchronized (this) {
+				if (waiting == null) {
+					waiting = local;
+					return;
+				}
+				other = waiting;
+				waiting = null;
+			}
+
+			if (other.size() > local.size()) {
+				other.addAll(local);
+				local = other;
+			} else {
+				local.addAll(other);
+			}
 		}
-		queue.shutdown();
 	}
 
 	/**
@@ -57,24 +188,177 @@ public class ThreadedInvertedIndexBuilder extends InvertedIndexBuilder {
 		 * Path to the file in question.
 		 */
 		private final Path path;
+
+		/**
+		 * Group the parts of a big file are added to.
+		 */
+		private final WorkQueue.Group files;
 		
 		/**
 		 * Constructor for our class Task
 		 * @param path we passing
+		 * @param files group the parts of a big file are added to
 		 */
-		public Task(Path path) {
+		public Task(Path path, WorkQueue.Group files) {
 			this.path = path;
+			this.files = files;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (Files.size(path) > chunkSize) {
+					addChunks(path, files);
+					return;
+				}
+				InvertedIndex local = new InvertedIndex();
+				addPath(path, local);
+				merge(local);
+			} catch (IOException | RuntimeException e) {
+				failed(path);
+			}
+		}
+	}
+
+	/**
+	 * This is the parts of a big file being built by separate tasks. Each part
+	 * counts positions from 1, so once every part is built the last task moves
+	 * the positions of each part by the number of words before it, giving the
+	 * same positions as building the file in one task.
+	 */
+	private class Chunks {
+
+		/**
+		 * Path to the file in question.
+		 */
+		private final Path path;
+
+		/**
+		 * Local index of each part, in file order.
+		 */
+		private final InvertedIndex[] parts;
+
+		/**
+		 * Number of words in each part, in file order.
+		 */
+		private final int[] counts;
+
+		/**
+		 * Number of parts not built yet.
+		 */
+		private final AtomicInteger remaining;
+
+		/**
+		 * True if any part could not be built.
+		 */
+		private volatile boolean failed;
+
+		/**
+		 * Constructor for the parts of a file
+		 * @param path the file
+		 * @param size number of parts
+		 */
+		public Chunks(Path path, int size) {
+			this.path = path;
+			this.parts = new InvertedIndex[size];
+			this.counts = new int[size];
+			this.remaining = new AtomicInteger(size);
+			this.failed = false;
+		}
+
+		/**
+		 * This function stores a built part, and once every part is built joins
+		 * them into one local index and merges it into the others.
+		 * 
+		 * @param part  index of the part
+		 * @param local local index of the part, or null if it failed
+		 * @param count number of words in the part
+		 */
+		public void finish(int part, InvertedIndex local, int count) {
+			if (local == null) {
+				failed = true;
+			} else {
+				parts[part] = local;
+				counts[part] = count;
+			}
+			if (remaining.decrementAndGet() != 0) {
+				return;
+			}
+
+			if (failed) {
+				failed(path);
+				return;
+			}
+			// every word is joined in one open list, so it is sealed only once
+			Map<String, PostingList> joined = new HashMap<>();
+			int offset = 0;
+			for (int i = 0; i < parts.length; i++) {
+				int shift = offset;
+				parts[i].forEach((word, where, positions) -> joined
+						.computeIfAbsent(word, key -> new PostingList()).addAll(positions, shift));
+				offset += counts[i];
+			}
+
+			InvertedIndex file = new InvertedIndex();
+			String location = path.toString();
+			joined.forEach((word, positions) -> file.addAll(word, location, positions));
+			merge(file);
+		}
+	}
+
+	/**
+	 * This is the runnable task building one part of a big file.
+	 * @author alex
+	 *
+	 */
+	private class Chunk implements Runnable {
+
+		/**
+		 * The parts of the file.
+		 */
+		private final Chunks chunks;
+
+		/**
+		 * Index of this part.
+		 */
+		private final int part;
+
+		/**
+		 * Position of the first byte of this part.
+		 */
+		private final long start;
+
+		/**
+		 * Position after the last byte of this part.
+		 */
+		private final long end;
+
+		/**
+		 * Constructor for our class Chunk
+		 * @param chunks the parts of the file
+		 * @param part   index of this part
+		 * @param start  position of the first byte
+		 * @param end    position after the last byte
+		 */
+		public Chunk(Chunks chunks, int part, long start, long end) {
+			this.chunks = chunks;
+			this.part = part;
+			this.start = start;
+			this.end = end;
 		}
 
 		@Override
 		public void run() {
+			InvertedIndex built = null;
+			int count = 0;
 			try {
-				 InvertedIndex local = new InvertedIndex();
-				 addPath(path, local);
-				 invertedIndex.addAll(local);
-				 
-			} catch (IOException e) {
-				System.out.println("Problem encountered while adding file: " + path.toString());
+				InvertedIndex local = new InvertedIndex();
+				count = addPath(chunks.path, start, end, local);
+				built = local;
+			} catch (IOException | RuntimeException e) {
+				// reported once for the whole file when every part is done
+			} finally {
+				chunks.finish(part, built, count);
 			}
 		}
 	}
@@ -18,15 +18,33 @@ import java.util.TreeSet;
 public class ThreadedQueryHandler implements QueueInterface {
 
 	/**
-	 * Protected caller for Inverted-Index
+	 * Protected caller for Inverted-Index, safe to search from many threads.
 	 */
-	private final ThreadedInvertedIndex invertedIndex;
+	private final InvertedIndex invertedIndex;
 
 	/**
 	 * Protected number of Threads
 	 */
 	private final int numThreads;
 
+	/**
+	 * The work queue shared with the rest of the application, or null to start
+	 * a work queue for every query file.
+	 */
+	private final WorkQueue workQueue;
+
+	/**
+	 * Query lines searched by one task, so each task is worth the cost of
+	 * queueing it.
+	 */
+	private static final int QUERIES_PER_BATCH = 32;
+
+	/**
+	 * Batches read ahead per thread, so a huge query file is never read into
+	 * memory all at once.
+	 */
+	private static final int BATCHES_PER_THREAD = 2;
+
 	/**
 	 * This is TreeMap to create QuerySet.
 	 */
@@ -35,13 +53,31 @@ public class ThreadedQueryHandler implements QueueInterface {
 	/**
 	 * This is our counstructor.
 	 * 
-	 * @param invertedIndex the index to process
+	 * @param invertedIndex the index to process, either a
+	 *                      {@link ThreadedInvertedIndex} or a read-only
+	 *                      {@link IndexSegment}
 	 * @param numThreads
 	 */
-	public ThreadedQueryHandler(ThreadedInvertedIndex invertedIndex, int numThreads) {
+	public ThreadedQueryHandler(InvertedIndex invertedIndex, int numThreads) {
 		this.invertedIndex = invertedIndex;
 		this.querySet = new TreeMap<>();
 		this.numThreads = numThreads;
+		this.workQueue = null;
+	}
+
+	/**
+	 * Constructor for a query handler running on a shared work queue, which is
+	 * left running after every query file. The shared queue should be bounded,
+	 * since it is all that keeps a huge query file from being read ahead.
+	 * 
+	 * @param invertedIndex the index to process
+	 * @param workQueue the shared work queue
+	 */
+	public ThreadedQueryHandler(InvertedIndex invertedIndex, WorkQueue workQueue) {
+		this.invertedIndex = invertedIndex;
+		this.querySet = new TreeMap<>();
+		this.numThreads = workQueue.size();
+		this.workQueue = workQueue;
 	}
 
 	/**
@@ -93,6 +129,25 @@ public class ThreadedQueryHandler implements QueueInterface {
 		}
 	}
 
+	/**
+	 * This function clean and stem the query line and return only the best
+	 * results, without storing them.
+	 * @param line query line to search
+	 * @param exactSearch true for exact search, false for partial
+	 * @param limit maximum number of results
+	 * @return sorted best results
+	 */
+	@Override
+	public List<InvertedIndex.SearchResult> search(String line, boolean exactSearch, int limit) {
+		TreeSet<String> queries = TextFileStemmer.uniqueStems(line);
+		
+		if (queries.isEmpty()) {
+			return Collections.emptyList();
+		}
+		
+		return invertedIndex.search(queries, exactSearch, limit);
+	}
+
 	/**
 	 * This function open query, clean and stem the queries, and put them to
 	 * TreeSet.
@@ -131,20 +186,32 @@ public class ThreadedQueryHandler implements QueueInterface {
 	 */
 	@Override
 	public void parseQuery(Path path, boolean exactSearch) throws IOException {
-		WorkQueue workQueue = new WorkQueue(numThreads);
+		WorkQueue queue = workQueue != null ? workQueue
+				: new WorkQueue(numThreads, numThreads * BATCHES_PER_THREAD, WorkQueue.Policy.BLOCK);
+		WorkQueue.Group batches = queue.newGroup();
 		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);) {
+			List<String> batch = new ArrayList<>(QUERIES_PER_BATCH);
 			String query;
 			while ((query = reader.readLine()) != null) {
-				workQueue.execute(new Task(query, exactSearch));
+				batch.add(query);
+				if (batch.size() == QUERIES_PER_BATCH) {
+					batches.execute(new Task(batch, exactSearch));
+					batch = new ArrayList<>(QUERIES_PER_BATCH);
+				}
+			}
+			if (!batch.isEmpty()) {
+				batches.execute(new Task(batch, exactSearch));
 			}
 		}
 		try {
-			workQueue.finish();
+			batches.finish();
 		} catch (Exception e) {
 			System.out.println("Sorry, something went wrong with parsing the query");
 		}
 
-		workQueue.shutdown();
+		if (queue != workQueue) {
+			queue.shutdown();
+		}
 	}
 
 	/**
@@ -153,8 +220,8 @@ public class ThreadedQueryHandler implements QueueInterface {
 	 */
 	private class Task implements Runnable {
 
-		/** The prime number to add or list. */
-		private final String line;
+		/** The query lines to search, in file order. */
+		private final List<String> lines;
 
 		/**
 		 * This decides if it's exact search or not
@@ -162,17 +229,19 @@ public class ThreadedQueryHandler implements QueueInterface {
 		private final boolean exact;
 
 		/**
-		 * @param line  line to parse param invertedIndex index to use
+		 * @param lines lines to parse
 		 * @param exact
 		 */
-		public Task(String line, boolean exact) {
-			this.line = line;
+		public Task(List<String> lines, boolean exact) {
+			this.lines = lines;
 			this.exact = exact;
 		}
 
 		@Override
 		public void run() {
-			parseQuery(line, exact);
+			for (String line : lines) {
+				parseQuery(line, exact);
+			}
 		}
 	}
 }
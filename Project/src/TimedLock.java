@@ -0,0 +1,29 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A simple lock that can also be tried, without waiting or waiting at most a
+ * given time.
+ *
+ * @see SimpleLock
+ * @see FairReadWriteLock
+ */
+public interface TimedLock extends SimpleLock {
+
+	/**
+	 * Acquires the lock only if it is available right now.
+	 *
+	 * @return true if the lock was acquired
+	 */
+	public boolean tryLock();
+
+	/**
+	 * Acquires the lock if it becomes available within the timeout.
+	 *
+	 * @param timeout the longest time to wait
+	 * @param unit    unit of the timeout
+	 * @return true if the lock was acquired, false if the time ran out
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException;
+
+}
@@ -1,10 +1,17 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.StringReader;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
+import opennlp.tools.stemmer.Stemmer;
 import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
@@ -21,7 +28,7 @@ public class WebCrawler  {
 	/**
 	 * The Inverted Index to populate
 	 */
-	private final ThreadedInvertedIndex invertedIndex;
+	private final ThreadSafeInvertedIndex invertedIndex;
 
 	/**
 	 * Number of Threads
@@ -33,6 +40,12 @@ public class WebCrawler  {
 	 */
 	private WorkQueue workQueue;
 
+	/**
+	 * The work queue shared with the rest of the application, or null to start
+	 * a work queue for every crawl.
+	 */
+	private final WorkQueue sharedQueue;
+
 	/**
 	 * The number of maximum follows.
 	 */
@@ -43,6 +56,26 @@ public class WebCrawler  {
 	 */
 	private Set<URL> links;
 
+	/**
+	 * Most fetches in flight at once when fetching on virtual threads.
+	 */
+	public static final int MAX_FETCHES = 1000;
+
+	/**
+	 * True to fetch every page on its own virtual thread.
+	 */
+	private final boolean virtual;
+
+	/**
+	 * The executor fetching pages when fetching on virtual threads.
+	 */
+	private ExecutorService fetchers;
+
+	/**
+	 * Permits for fetches in flight.
+	 */
+	private final Semaphore fetches;
+
 	/**
 	 * Constructor for the crawler class
 	 *
@@ -50,98 +83,194 @@ public class WebCrawler  {
 	 * @param numThreads number of Threads
 	 * @param limit maximum depth
 	 */
-	public WebCrawler (ThreadedInvertedIndex invertedIndex, int numThreads, int limit){
+	public WebCrawler (ThreadSafeInvertedIndex invertedIndex, int numThreads, int limit){
+		this(invertedIndex, numThreads, limit, false);
+	}
+
+	/**
+	 * Constructor for the crawler class. If virtual, every page is fetched on its
+	 * own virtual thread, so the number of threads only bounds the cleaning and
+	 * stemming of fetched pages, not how many fetches wait on the network.
+	 *
+	 * @param invertedIndex the index to use
+	 * @param numThreads number of Threads
+	 * @param limit maximum depth
+	 * @param virtual true to fetch on virtual threads
+	 */
+	public WebCrawler (ThreadSafeInvertedIndex invertedIndex, int numThreads, int limit, boolean virtual){
 		this.invertedIndex = invertedIndex;
 		this.numThreads = numThreads;
 		this.limit = limit;
 		this.links = new HashSet<URL>();
+		this.virtual = virtual;
+		this.fetches = new Semaphore(MAX_FETCHES);
+		this.sharedQueue = null;
 	}
 
 	/**
-	 * Stems the content of the cleaned html and adds it to the index.
+	 * Constructor for a crawler running on a shared work queue, which is left
+	 * running after every crawl.
+	 *
+	 * @param invertedIndex the index to use
+	 * @param workQueue the shared work queue
+	 * @param limit maximum depth
+	 * @param virtual true to fetch on virtual threads
+	 */
+	public WebCrawler (ThreadSafeInvertedIndex invertedIndex, WorkQueue workQueue, int limit, boolean virtual){
+		this.invertedIndex = invertedIndex;
+		this.numThreads = workQueue.size();
+		this.limit = limit;
+		this.links = new HashSet<URL>();
+		this.virtual = virtual;
+		this.fetches = new Semaphore(MAX_FETCHES);
+		this.sharedQueue = workQueue;
+	}
+
+	/**
+	 * Creates an executor starting a virtual thread per task. Virtual threads
+	 * are looked up at runtime so this still builds on Java 17, where a cached
+	 * pool of platform threads is used instead.
+	 *
+	 * @return the executor
+	 */
+	private static ExecutorService newFetchExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * Stems the content of the cleaned html and adds it to the index, splitting
+	 * every line of it in one pass without copying the lines out.
 	 *
 	 * @param cleaned the cleaned HTML
 	 * @param location the location string
 	 * @param index the index to add to
-	 * @throws IOException could happen
 	 */
-	public static void addStemmed(String cleaned, String location, InvertedIndex index) throws IOException {
+	public static void addStemmed(String cleaned, String location, InvertedIndex index) {
 		int position = 0;
-		try (BufferedReader reader = new BufferedReader(new StringReader(cleaned));) {
-			String line = null;
-			SnowballStemmer stemmer = new SnowballStemmer(DEFAULT);
-			while ((line = reader.readLine()) != null) {
-				for (String word : TextParser.parser(line)) {
-					position++;
-					index.addEntry(stemmer.stem(word).toString(),location , position);
-				}
-			}
+		Stemmer stemmer = StemCache.ENGLISH.wrap(new SnowballStemmer(DEFAULT));
+		TextParser.Tokenizer tokens = new TextParser.Tokenizer();
+		tokens.resetText(cleaned);
+		while (tokens.next()) {
+			position++;
+			index.addEntry(stemmer.stem(tokens.token()).toString(),location , position);
 		}
 	}
 
 	/**
-	 * This traverses the URLs and does all the hard work
+	 * This traverses the URLs and does all the hard work. The pages are crawled
+	 * one depth level at a time: every page of a level is fetched and indexed
+	 * in parallel, and once the whole level is done its new links are added in
+	 * page order until the limit is reached, so the same pages are crawled no
+	 * matter how many threads are used.
+	 *
 	 * @param seed the seed url
 	 * @throws IOException could happen
 	 */
 	public void traverse(URL seed) throws IOException {
-		workQueue = new WorkQueue(numThreads);
+		workQueue = sharedQueue != null ? sharedQueue : new WorkQueue(numThreads);
+		if (virtual) {
+			fetchers = newFetchExecutor();
+		}
+
 		links.add(seed);
-		workQueue.execute(new Task(seed));
-		try {
-			workQueue.finish();
-		} catch (Exception e) {
-			System.out.println("The work queue encountered an error.");
+		List<URL> level = new ArrayList<>();
+		level.add(seed);
+
+		while (!level.isEmpty()) {
+			List<CompletableFuture<List<URL>>> pages = new ArrayList<>();
+			for (URL url : level) {
+				pages.add(crawl(url));
+			}
+
+			level = new ArrayList<>();
+			for (CompletableFuture<List<URL>> page : pages) {
+				List<URL> found;
+				try {
+					found = page.join();
+				} catch (CompletionException e) {
+					System.out.println("The work queue encountered an error.");
+					continue;
+				}
+
+				for (URL link : found) {
+					if (links.size() >= limit) {
+						break;
+					}
+					if (links.add(link)) {
+						level.add(link);
+					}
+				}
+			}
 		}
-		workQueue.shutdown();
+
+		if (workQueue != sharedQueue) {
+			workQueue.shutdown();
+		}
+		if (virtual) {
+			fetchers.shutdown();
+		}
+		invertedIndex.seal();
 	}
 
 	/**
-	 * A task class for multithreadig.
-	 * @author alex
+	 * Starts crawling a URL. The page is fetched on a virtual thread if fetching
+	 * on virtual threads, or on the work queue otherwise, and always cleaned and
+	 * stemmed on the work queue.
 	 *
+	 * @param url the url to crawl
+	 * @return future completed with the links found in the page
 	 */
-	private class Task implements Runnable {
+	private CompletableFuture<List<URL>> crawl(URL url) {
+		if (virtual) {
+			return CompletableFuture.supplyAsync(() -> fetch(url), fetchers)
+					.thenApplyAsync(html -> process(url, html), workQueue);
+		}
+		return workQueue.submit(() -> process(url, HtmlFetcher.fetch(url, 3)));
+	}
 
-		/**
-		 * Given URL.
-		 */
-		private final URL url;
+	/**
+	 * Fetches a page, with at most {@link #MAX_FETCHES} fetches in flight.
+	 *
+	 * @param url the url to fetch
+	 * @return the html of the page, or null
+	 */
+	private String fetch(URL url) {
+		fetches.acquireUninterruptibly();
+		try {
+			return HtmlFetcher.fetch(url, 3);
+		} finally {
+			fetches.release();
+		}
+	}
 
-		/**
-		 * Constructor for the Task.
-		 * @param url the url to work on.
-		 */
-		public Task(URL url) {
-			this.url = url;
+	/**
+	 * Cleans and stems a fetched page into the index.
+	 *
+	 * @param url the url of the page
+	 * @param html the html of the page, or null if it could not be fetched
+	 * @return the links found in the page
+	 */
+	private List<URL> process(URL url, String html) {
+		if (html == null) {
+			return Collections.emptyList();
 		}
 
-		@Override
-		public void run() {
-			HtmlCleaner htmlCleaner = new HtmlCleaner(this.url, HtmlFetcher.fetch(url, 3));
-			try {
-				if (HtmlFetcher.fetch(url, 3) == null) {
-					return;
-				}
+		try {
+			HtmlCleaner htmlCleaner = new HtmlCleaner(url, html);
 
-				InvertedIndex local = new InvertedIndex();
-				addStemmed(htmlCleaner.getHtml(), url.toString(), local);
-				invertedIndex.addAll(local);
-
-				synchronized(links) {
-					for (URL url : htmlCleaner.getUrls()) {
-						if (links.size() < limit && links.add(url)) {
-							workQueue.execute(new Task(url));
-						} else if (links.size() == limit) {
-							break;
-						}
-					}
-				}
+			InvertedIndex local = new InvertedIndex();
+			addStemmed(htmlCleaner.getHtml(), url.toString(), local);
+			invertedIndex.addAll(local);
 
-			} catch (Exception e){
-				System.out.println("Something went wrong while adding the cleaned HTML to the index.");
-			}
+			return htmlCleaner.getUrls();
+		} catch (Exception e){
+			System.out.println("Something went wrong while adding the cleaned HTML to the index.");
+			return Collections.emptyList();
 		}
 	}
 
-}
\ No newline at end of file
+}
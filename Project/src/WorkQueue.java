@@ -1,14 +1,61 @@
-import java.util.LinkedList;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * A simple work queue implementation based on the IBM Developer article by
  * Brian Goetz. It is up to the user of this class to keep track of whether
  * there is any pending work remaining.
  *
+ * <p>
+ * Work is spread with work stealing instead of one shared list. Every worker
+ * has its own deque: work added from inside a task goes to the end of the
+ * deque of the worker running it, and the worker takes work from the front,
+ * so work is still done roughly in the order it was added. Work added from
+ * outside the pool goes to a shared submission queue. A worker with nothing to
+ * do takes from the submission queue, then steals the newest work from the
+ * end of another worker's deque, and only parks when there is nothing left
+ * anywhere. None of these take a lock.
+ *
+ * <p>
+ * The submission queue may be bounded, so a producer adding work faster than
+ * it is done does not fill the heap. When it is full, new work from outside
+ * the pool is handled by the {@link Policy} of the queue. Work added by tasks
+ * is never bounded, since a worker waiting for room that only workers can
+ * make could wait forever.
+ *
+ * <p>
+ * The queue keeps metrics while it runs: how much work was added, done, failed
+ * and rejected, how deep the queue got, how long work waited and ran, and how
+ * busy each worker was. {@link #getMetrics()} returns a snapshot of them, and
+ * if {@link #setManaged(boolean)} was turned on before the queue was started
+ * they can also be watched over JMX as a {@link WorkQueueMXBean}.
+ *
+ * <p>
+ * Work that throws is not lost: the first exception thrown by work added with
+ * {@link #execute(Runnable)} is thrown again by the next {@link #finish()}.
+ * Work added with {@link #submit(Callable)} completes its future instead, and
+ * is counted as failed in the metrics either way. Work
+ * can also be added to a {@link Group}, which is waited for on its own and
+ * keeps its own first exception, so one queue can be shared by many users.
+ *
  * @see <a href="https://www.ibm.com/developerworks/library/j-jtp0730/index.html">
  * Java Theory and Practice: Thread Pools and Work Queues</a>
  */
-public class WorkQueue {
+public final class WorkQueue implements WorkQueueMXBean, Executor {
 
 
 	/**
@@ -17,19 +64,74 @@ public class WorkQueue {
 	 */
 	private final PoolWorker[] workers;
 
-	/** Queue of pending work requests. */
-	private final LinkedList<Runnable> queue;
+	/** Queue of work requests added from outside the pool. */
+	private final ConcurrentLinkedQueue<Work> submissions;
+
+	/** Workers parked waiting for work. */
+	private final ConcurrentLinkedQueue<PoolWorker> sleeping;
 
 	/** Used to signal the queue should be shutdown. */
 	private volatile boolean shutdown;
 
 	/** The default number of threads to use when not specified. */
 	public static final int DEFAULT = 5;
-	
+
+	/**
+	 * What to do with work added from outside the pool while the submission
+	 * queue is full.
+	 */
+	public enum Policy {
+		/** Wait until there is room. */
+		BLOCK,
+		/** Run the work on the thread adding it. */
+		CALLER_RUNS,
+		/** Throw a {@link RejectedExecutionException}. */
+		REJECT
+	}
+
+	/** Most work requests waiting in the submission queue. */
+	private final int capacity;
+
+	/** What to do with work while the submission queue is full. */
+	private final Policy policy;
+
+	/** Number of work requests waiting in the submission queue. */
+	private final AtomicInteger submitted;
+
+	/** Number of producers waiting for room in the submission queue. */
+	private volatile int blocked;
+
+	/** Used to wait for room in the submission queue. */
+	private final Object room;
+
 	/**
 	 * The nujmber of pending jobs.
 	 */
-	private int pending;
+	private final AtomicInteger pending;
+
+	/** First exception thrown by work outside any group since the last finish. */
+	private final AtomicReference<RuntimeException> failure;
+
+	/** True if new work queues register themselves with JMX. */
+	private static volatile boolean managed = false;
+
+	/** Used to give every registered work queue its own name. */
+	private static final AtomicInteger ids = new AtomicInteger();
+
+	/** Name this queue is registered with JMX under, or null. */
+	private volatile ObjectName name;
+
+	/** When the queue was started, in nanoseconds. */
+	private final long started;
+
+	/** Work requests added to the queue. */
+	private final LongAdder added;
+
+	/** Work requests rejected or run by the caller because the queue was full. */
+	private final LongAdder rejected;
+
+	/** Most work requests pending at once, waiting or running. */
+	private final AtomicInteger maxPending;
 
 	/**
 	 * Starts a work queue with the default number of threads.
@@ -41,69 +143,373 @@ public class WorkQueue {
 	}
 
 	/**
-	 * Starts a work queue with the specified number of threads.
+	 * Starts a work queue with the specified number of threads and an unbounded
+	 * submission queue.
 	 *
 	 * @param threads number of worker threads; should be greater than 1
 	 */
 	public WorkQueue(int threads) {
-		this.queue = new LinkedList<Runnable>();
+		this(threads, Integer.MAX_VALUE, Policy.BLOCK);
+	}
+
+	/**
+	 * Starts a work queue with the specified number of threads and a bounded
+	 * submission queue.
+	 *
+	 * @param threads number of worker threads; should be greater than 1
+	 * @param capacity most work requests waiting to be started; at least 1
+	 * @param policy what to do with work while the submission queue is full
+	 */
+	public WorkQueue(int threads, int capacity, Policy policy) {
+		this.capacity = Math.max(capacity, 1);
+		this.policy = policy;
+		this.submitted = new AtomicInteger();
+		this.blocked = 0;
+		this.room = new Object();
+		this.submissions = new ConcurrentLinkedQueue<Work>();
+		this.sleeping = new ConcurrentLinkedQueue<PoolWorker>();
 		this.workers = new PoolWorker[threads];
 
 		this.shutdown = false;
-		this.pending = 0;
+		this.pending = new AtomicInteger();
+		this.failure = new AtomicReference<RuntimeException>();
+
+		this.started = System.nanoTime();
+		this.added = new LongAdder();
+		this.rejected = new LongAdder();
+		this.maxPending = new AtomicInteger();
+
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new PoolWorker(i);
+		}
 
 		// start the threads so they are waiting in the background
 		for (int i = 0; i < threads; i++) {
-			workers[i] = new PoolWorker();
 			workers[i].start();
 		}
+
+		if (managed) {
+			register("WorkQueue-" + ids.incrementAndGet());
+		}
+	}
+
+	/**
+	 * Sets whether work queues started from now on register themselves with the
+	 * platform MBean server. Off by default, since starting JMX takes time.
+	 *
+	 * @param managed true to register new work queues
+	 */
+	public static void setManaged(boolean managed) {
+		WorkQueue.managed = managed;
+	}
+
+	/**
+	 * Registers this queue with the platform MBean server, so its metrics can be
+	 * watched while it runs. It is unregistered again on {@link #shutdown()}.
+	 *
+	 * @param queueName name to register the queue under
+	 */
+	public void register(String queueName) {
+		try {
+			ObjectName objectName = new ObjectName("WorkQueue:type=WorkQueue,name=" + ObjectName.quote(queueName));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			name = objectName;
+		} catch (JMException e) {
+			System.err.println("Warning: Unable to register work queue " + queueName + ".");
+		}
 	}
 
 	/**
 	 * Adds a work request to the queue. A thread will process this request when
-	 * available.
+	 * available. Work added by a task running in this queue goes to the deque of
+	 * the worker running it.
 	 *
 	 * @param r work request (in the form of a {@link Runnable} object)
 	 */
+	@Override
 	public void execute(Runnable r) {
-		incrementPending();
-		synchronized (queue) {
-			queue.addLast(r);
-			queue.notifyAll();
+		execute(r, null);
+	}
+
+	/**
+	 * Adds a work request that returns a result to the queue.
+	 *
+	 * @param <T>  type of the result
+	 * @param task work request
+	 * @return future completed with the result, or with the exception thrown
+	 */
+	public <T> CompletableFuture<T> submit(Callable<T> task) {
+		return submit(task, null);
+	}
+
+	/**
+	 * Adds a work request to the queue.
+	 *
+	 * @param task work request
+	 * @return future completed when the work is done, or with the exception
+	 *         thrown
+	 */
+	public CompletableFuture<Void> submit(Runnable task) {
+		return submit(task, null);
+	}
+
+	/**
+	 * Creates a group of work on this queue that can be waited for on its own.
+	 *
+	 * @return new empty group
+	 */
+	public Group newGroup() {
+		return new Group();
+	}
+
+	/**
+	 * Adds a work request to the queue, and to a group if given.
+	 *
+	 * @param r     work request
+	 * @param group group of the work, or null
+	 */
+	private void execute(Runnable r, Group group) {
+		if (group != null) {
+			group.pending.incrementAndGet();
+		}
+		Work work = new Work(r, group);
+
+		Thread current = Thread.currentThread();
+		if (current instanceof PoolWorker && ((PoolWorker) current).getQueue() == this) {
+			enqueued();
+			((PoolWorker) current).deque.addLast(work);
+		} else {
+			boolean room;
+			try {
+				room = reserve();
+			} catch (RejectedExecutionException e) {
+				rejected.increment();
+				if (group != null) {
+					group.done();
+				}
+				throw e;
+			}
+			if (!room) {
+				rejected.increment();
+				runWork(work);
+				return;
+			}
+			enqueued();
+			submissions.add(work);
+		}
+
+		PoolWorker sleeper = sleeping.poll();
+		if (sleeper != null) {
+			LockSupport.unpark(sleeper);
 		}
 	}
+
 	/**
-	 * This function increment pending variable.
+	 * Adds a work request that returns a result to the queue, and to a group if
+	 * given. The work is skipped if its future was completed or cancelled before
+	 * it started.
+	 *
+	 * @param <T>   type of the result
+	 * @param task  work request
+	 * @param group group of the work, or null
+	 * @return future completed with the result, or with the exception thrown
 	 */
-	private synchronized void incrementPending() {
-		pending++;
+	private <T> CompletableFuture<T> submit(Callable<T> task, Group group) {
+		FutureWork<T> work = new FutureWork<>(task);
+		execute(work, group);
+		return work.future;
 	}
 
+	/**
+	 * Adds a work request to the queue, and to a group if given.
+	 *
+	 * @param task  work request
+	 * @param group group of the work, or null
+	 * @return future completed when the work is done, or with the exception
+	 *         thrown
+	 */
+	private CompletableFuture<Void> submit(Runnable task, Group group) {
+		return submit(() -> {
+			task.run();
+			return null;
+		}, group);
+	}
 
 	/**
-	 * This function decrement pending variable.
+	 * Reserves room in the submission queue, following the policy if it is full.
+	 *
+	 * @return true if there is room, false if the caller should run the work
+	 * @throws RejectedExecutionException if the work is rejected, or the queue is
+	 * shut down while waiting for room
+	 */
+	private boolean reserve() {
+		while (true) {
+			int count = submitted.get();
+			if (count < capacity) {
+				if (submitted.compareAndSet(count, count + 1)) {
+					return true;
+				}
+				continue;
+			}
+
+			switch (policy) {
+			case CALLER_RUNS:
+				return false;
+			case REJECT:
+				throw new RejectedExecutionException("Work queue is full: " + capacity);
+			default:
+				synchronized (room) {
+					blocked++;
+					try {
+						while (submitted.get() >= capacity && !shutdown) {
+							room.wait();
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException("Interrupted while waiting for room.", e);
+					} finally {
+						blocked--;
+					}
+				}
+				if (shutdown) {
+					throw new RejectedExecutionException("Work queue is shut down.");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Takes work from the submission queue, waking a producer waiting for room.
+	 *
+	 * @return work request, or null if the submission queue is empty
+	 */
+	private Work pollSubmission() {
+		Work r = submissions.poll();
+		if (r != null) {
+			submitted.decrementAndGet();
+			if (blocked > 0) {
+				synchronized (room) {
+					room.notifyAll();
+				}
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Runs a work request, keeping instead of throwing any exception so the
+	 * next finish of the queue or of its group throws it.
+	 *
+	 * @param work work request
+	 * @return true if the work ran without throwing, also into its future
 	 */
-	private synchronized void decrementPending() {
-		pending--;
+	private boolean runWork(Work work) {
+		try {
+			work.task.run();
+			return !(work.task instanceof FutureWork && ((FutureWork<?>) work.task).threw);
+		}
+		catch (RuntimeException ex) {
+			(work.group == null ? failure : work.group.failure).compareAndSet(null, ex);
+			return false;
+		}
+		finally {
+			if (work.group != null) {
+				work.group.done();
+			}
+		}
+	}
 
-		if (pending == 0) {
-			this.notifyAll();
+	/**
+	 * Throws the first kept exception, if any, and forgets it.
+	 *
+	 * @param failure the kept exception
+	 * @throws CompletionException wrapping the kept exception
+	 */
+	private static void rethrow(AtomicReference<RuntimeException> failure) throws CompletionException {
+		RuntimeException ex = failure.getAndSet(null);
+		if (ex != null) {
+			throw new CompletionException(ex);
 		}
 	}
 
 	/**
-	 * Waits for all pending work to be finished.
+	 * Waits on a monitor until a count of pending work reaches zero, at most
+	 * for the timeout. Must be called while holding the monitor.
+	 *
+	 * @param monitor notified when the count reaches zero
+	 * @param count   pending work
+	 * @param nanos   longest time to wait, or negative to wait forever
+	 * @return the count left
 	 */
-	public synchronized void finish() {
-		while (pending > 0) {
+	private static int await(Object monitor, AtomicInteger count, long nanos) {
+		long deadline = System.nanoTime() + nanos;
+		long remaining = nanos;
+		while (count.get() > 0 && (nanos < 0 || remaining > 0)) {
 			try {
-				this.wait();
+				if (nanos < 0) {
+					monitor.wait();
+				} else {
+					TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+				}
 			} catch (InterruptedException e) {
 				Thread.currentThread().interrupt();
-				}
+				break;
+			}
+			remaining = deadline - System.nanoTime();
+		}
+		return count.get();
+	}
+
+	/**
+	 * This function counts work added to a queue as pending and updates the
+	 * most work pending at once.
+	 */
+	private void enqueued() {
+		added.increment();
+		int count = pending.incrementAndGet();
+		if (count > maxPending.get()) {
+			maxPending.accumulateAndGet(count, Math::max);
 		}
 	}
 
+	/**
+	 * This function decrement pending variable.
+	 */
+	private void decrementPending() {
+		if (pending.decrementAndGet() == 0) {
+			synchronized (this) {
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits for all pending work to be finished, including the work of every
+	 * group. Stops waiting if interrupted, keeping the interrupt status.
+	 *
+	 * @throws CompletionException wrapping the first exception thrown by work
+	 *                             outside any group since the last finish
+	 */
+	public synchronized void finish() throws CompletionException {
+		await(this, pending, -1);
+		rethrow(failure);
+	}
+
+	/**
+	 * Waits for all pending work to be finished, at most for the timeout.
+	 *
+	 * @param timeout the longest time to wait
+	 * @param unit unit of the timeout
+	 * @return number of work requests still pending, 0 if all work is finished
+	 * @throws CompletionException wrapping the first exception thrown by work
+	 *                             outside any group since the last finish
+	 */
+	public synchronized int finish(long timeout, TimeUnit unit) throws CompletionException {
+		int left = await(this, pending, Math.max(unit.toNanos(timeout), 0));
+		rethrow(failure);
+		return left;
+	}
+
 	/**
 	 * Asks the queue to shutdown. Any unprocessed work will not be finished,
 	 * but threads in-progress will not be interrupted.
@@ -112,8 +518,22 @@ public class WorkQueue {
 		// safe to do unsynchronized due to volatile keyword
 		shutdown = true;
 
-		synchronized (queue) {
-			queue.notifyAll();
+		ObjectName objectName = name;
+		if (objectName != null) {
+			name = null;
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException e) {
+				System.err.println("Warning: Unable to unregister work queue " + objectName + ".");
+			}
+		}
+
+		synchronized (room) {
+			room.notifyAll();
+		}
+
+		for (PoolWorker worker : workers) {
+			LockSupport.unpark(worker);
 		}
 	}
 
@@ -126,6 +546,339 @@ public class WorkQueue {
 		return workers.length;
 	}
 
+	/**
+	 * Returns a snapshot of the metrics of the work queue.
+	 *
+	 * @return metrics so far
+	 */
+	public WorkQueueMetrics getMetrics() {
+		long[] busy = new long[workers.length];
+		long completed = 0;
+		long failed = 0;
+		Recorder waitTime = new Recorder();
+		Recorder runTime = new Recorder();
+		int queued = submissions.size();
+
+		for (int i = 0; i < workers.length; i++) {
+			// read busy first, it is written last after every task
+			busy[i] = workers[i].busy;
+			completed += workers[i].completed;
+			failed += workers[i].failed;
+			waitTime.add(workers[i].waitTime);
+			runTime.add(workers[i].runTime);
+			queued += workers[i].deque.size();
+		}
+
+		return new WorkQueueMetrics(added.sum(), completed, failed, rejected.sum(), queued, maxPending.get(),
+				waitTime.snapshot(), runTime.snapshot(), busy, System.nanoTime() - started);
+	}
+
+	@Override
+	public int getThreads() {
+		return size();
+	}
+
+	@Override
+	public long getSubmitted() {
+		return added.sum();
+	}
+
+	@Override
+	public long getCompleted() {
+		return getMetrics().getCompleted();
+	}
+
+	@Override
+	public long getFailed() {
+		return getMetrics().getFailed();
+	}
+
+	@Override
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	@Override
+	public int getQueued() {
+		return getMetrics().getQueued();
+	}
+
+	@Override
+	public int getMaxPending() {
+		return maxPending.get();
+	}
+
+	@Override
+	public long getWaitP50Micros() {
+		return getMetrics().getWaitTime().getPercentile(50);
+	}
+
+	@Override
+	public long getWaitP99Micros() {
+		return getMetrics().getWaitTime().getPercentile(99);
+	}
+
+	@Override
+	public long getRunP50Micros() {
+		return getMetrics().getRunTime().getPercentile(50);
+	}
+
+	@Override
+	public long getRunP99Micros() {
+		return getMetrics().getRunTime().getPercentile(99);
+	}
+
+	@Override
+	public double[] getUtilization() {
+		return getMetrics().getUtilization();
+	}
+
+	/**
+	 * Finds work for a worker: first from the front of its own deque, then from
+	 * the submission queue, then from the end of the other workers' deques.
+	 *
+	 * @param worker looking for work
+	 * @return work request, or null if there is none anywhere
+	 */
+	private Work findWork(PoolWorker worker) {
+		Work r = worker.deque.pollFirst();
+		if (r != null) {
+			return r;
+		}
+
+		r = pollSubmission();
+		if (r != null) {
+			return r;
+		}
+
+		for (int i = 1; i < workers.length; i++) {
+			r = workers[(worker.index + i) % workers.length].deque.pollLast();
+			if (r != null) {
+				return r;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * A group of work on this queue, waited for on its own. Work added by a task
+	 * of the group is only part of the group if added to the group too.
+	 */
+	public class Group implements Executor {
+
+		/** Number of work requests of the group not yet done. */
+		private final AtomicInteger pending;
+
+		/** First exception thrown by work of the group since the last finish. */
+		private final AtomicReference<RuntimeException> failure;
+
+		/**
+		 * Creates an empty group.
+		 */
+		private Group() {
+			this.pending = new AtomicInteger();
+			this.failure = new AtomicReference<RuntimeException>();
+		}
+
+		/**
+		 * Adds a work request to the queue as part of this group.
+		 *
+		 * @param r work request
+		 */
+		@Override
+		public void execute(Runnable r) {
+			WorkQueue.this.execute(r, this);
+		}
+
+		/**
+		 * Adds a work request that returns a result to the queue as part of this
+		 * group.
+		 *
+		 * @param <T>  type of the result
+		 * @param task work request
+		 * @return future completed with the result, or with the exception thrown
+		 */
+		public <T> CompletableFuture<T> submit(Callable<T> task) {
+			return WorkQueue.this.submit(task, this);
+		}
+
+		/**
+		 * Adds a work request to the queue as part of this group.
+		 *
+		 * @param task work request
+		 * @return future completed when the work is done, or with the exception
+		 *         thrown
+		 */
+		public CompletableFuture<Void> submit(Runnable task) {
+			return WorkQueue.this.submit(task, this);
+		}
+
+		/**
+		 * Waits for the work of this group to be finished. Stops waiting if
+		 * interrupted, keeping the interrupt status.
+		 *
+		 * @throws CompletionException wrapping the first exception thrown by work
+		 *                             of the group since the last finish
+		 */
+		public synchronized void finish() throws CompletionException {
+			await(this, pending, -1);
+			rethrow(failure);
+		}
+
+		/**
+		 * Waits for the work of this group to be finished, at most for the
+		 * timeout.
+		 *
+		 * @param timeout the longest time to wait
+		 * @param unit    unit of the timeout
+		 * @return number of work requests of the group still pending
+		 * @throws CompletionException wrapping the first exception thrown by work
+		 *                             of the group since the last finish
+		 */
+		public synchronized int finish(long timeout, TimeUnit unit) throws CompletionException {
+			int left = await(this, pending, Math.max(unit.toNanos(timeout), 0));
+			rethrow(failure);
+			return left;
+		}
+
+		/**
+		 * This function counts a work request of the group as done.
+		 */
+		private void done() {
+			if (pending.decrementAndGet() == 0) {
+				synchronized (this) {
+					this.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A work request completing a future with its result, or with the exception
+	 * thrown, which is remembered so the work is still counted as failed.
+	 *
+	 * @param <T> type of the result
+	 */
+	private static class FutureWork<T> implements Runnable {
+
+		/** The work request. */
+		private final Callable<T> task;
+
+		/** Future of the result. */
+		private final CompletableFuture<T> future;
+
+		/** Whether the work request threw, only read by the worker that ran it. */
+		private boolean threw;
+
+		/**
+		 * Creates a work request for a task.
+		 *
+		 * @param task the task
+		 */
+		public FutureWork(Callable<T> task) {
+			this.task = task;
+			this.future = new CompletableFuture<>();
+			this.threw = false;
+		}
+
+		/**
+		 * Runs the task unless its future was completed or cancelled before.
+		 */
+		@Override
+		public void run() {
+			if (future.isDone()) {
+				return;
+			}
+			try {
+				future.complete(task.call());
+			} catch (Exception e) {
+				threw = true;
+				future.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * A work request with the time it was added.
+	 */
+	private static class Work {
+
+		/** The work request. */
+		private final Runnable task;
+
+		/** Group of the work, or null. */
+		private final Group group;
+
+		/** When the work was added, in nanoseconds. */
+		private final long added;
+
+		/**
+		 * Creates a work request added now.
+		 *
+		 * @param task  the work request
+		 * @param group group of the work, or null
+		 */
+		public Work(Runnable task, Group group) {
+			this.task = task;
+			this.group = group;
+			this.added = System.nanoTime();
+		}
+	}
+
+	/**
+	 * A histogram of times recorded by a single worker, so recording needs no
+	 * atomic updates. Other threads may read it a little behind the worker.
+	 *
+	 * @see WorkQueueMetrics.Histogram
+	 */
+	private static class Recorder {
+
+		/** Count of times in each bucket. */
+		private final long[] counts;
+
+		/** Sum of all times, in nanoseconds. */
+		private long total;
+
+		/**
+		 * Creates an empty histogram.
+		 */
+		public Recorder() {
+			this.counts = new long[WorkQueueMetrics.BUCKETS];
+			this.total = 0;
+		}
+
+		/**
+		 * Records a time.
+		 *
+		 * @param nanos time in nanoseconds
+		 */
+		public void record(long nanos) {
+			counts[WorkQueueMetrics.Histogram.bucket(nanos)]++;
+			total += nanos;
+		}
+
+		/**
+		 * Adds the times of another histogram to this one.
+		 *
+		 * @param other histogram to add
+		 */
+		public void add(Recorder other) {
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] += other.counts[i];
+			}
+			total += other.total;
+		}
+
+		/**
+		 * Returns a snapshot of the histogram.
+		 *
+		 * @return histogram so far
+		 */
+		public WorkQueueMetrics.Histogram snapshot() {
+			return new WorkQueueMetrics.Histogram(counts, total);
+		}
+	}
+
 	/**
 	 * Waits until work is available in the work queue. When work is found, will
 	 * remove the work from the queue and run it. If a shutdown is detected,
@@ -134,34 +887,92 @@ public class WorkQueue {
 	 */
 	private class PoolWorker extends Thread {
 
+		/** Position of this worker in the pool. */
+		private final int index;
+
+		/** Work added by tasks run on this worker. */
+		private final ConcurrentLinkedDeque<Work> deque;
+
+		/**
+		 * Time this worker spent running work, in nanoseconds. Written after the
+		 * other metrics of each task, so reading it first makes them visible.
+		 */
+		private volatile long busy;
+
+		/** Work requests run by this worker without throwing. */
+		private long completed;
+
+		/** Work requests run by this worker that threw an exception. */
+		private long failed;
+
+		/** Time between adding and starting the work run by this worker. */
+		private final Recorder waitTime;
+
+		/** Time this worker spent running each work request. */
+		private final Recorder runTime;
+
+		/**
+		 * Creates a worker.
+		 *
+		 * @param index position of this worker in the pool
+		 */
+		public PoolWorker(int index) {
+			this.index = index;
+			this.deque = new ConcurrentLinkedDeque<Work>();
+			this.busy = 0;
+			this.completed = 0;
+			this.failed = 0;
+			this.waitTime = new Recorder();
+			this.runTime = new Recorder();
+		}
+
+		/**
+		 * Returns the work queue this worker belongs to.
+		 *
+		 * @return the work queue
+		 */
+		public WorkQueue getQueue() {
+			return WorkQueue.this;
+		}
+
 		@Override
 		public void run() {
-			Runnable r = null;
-
-			while (true) {
-				synchronized (queue) {
-					while (queue.isEmpty() && !shutdown) {
-						try {
-							queue.wait();
-						} catch (InterruptedException ex) {
+			while (!shutdown) {
+				Work r = findWork(this);
+
+				if (r == null) {
+					// register before checking again, so work added meanwhile wakes us
+					sleeping.add(this);
+					r = findWork(this);
+					if (r == null) {
+						if (!shutdown) {
+							LockSupport.park(WorkQueue.this);
+						}
+						if (Thread.interrupted()) {
 							System.err.println("Warning: Work queue interrupted.");
-							Thread.currentThread().interrupt();
 						}
+						sleeping.remove(this);
+						continue;
 					}
-					if (shutdown) {
-						break;
-					} else {
-						r = queue.removeFirst();
-					}
+					sleeping.remove(this);
 				}
 
+				long start = System.nanoTime();
+				waitTime.record(start - r.added);
+				boolean ok = false;
 				try {
-					r.run();
-				}
-				catch (RuntimeException ex) {
-					System.err.println("Warning: Work queue encountered an exception while running.");
+					ok = runWork(r);
 				}
 				finally {
+					// an error thrown past runWork is counted as failed too
+					if (ok) {
+						completed++;
+					} else {
+						failed++;
+					}
+					long ran = System.nanoTime() - start;
+					runTime.record(ran);
+					busy = busy + ran;
 					decrementPending();
 				}
 			}
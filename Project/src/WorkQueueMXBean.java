@@ -0,0 +1,72 @@
+/**
+ * Management interface of a {@link WorkQueue}, so its metrics can be watched
+ * with JMX tools such as jconsole while it runs.
+ *
+ * @see WorkQueue#register(String)
+ * @see WorkQueueMetrics
+ *
+ * @author alex
+ */
+public interface WorkQueueMXBean {
+
+	/**
+	 * @return number of worker threads
+	 */
+	public int getThreads();
+
+	/**
+	 * @return work requests added
+	 */
+	public long getSubmitted();
+
+	/**
+	 * @return work requests that ran without throwing
+	 */
+	public long getCompleted();
+
+	/**
+	 * @return work requests that threw an exception
+	 */
+	public long getFailed();
+
+	/**
+	 * @return work requests rejected or run by the caller
+	 */
+	public long getRejected();
+
+	/**
+	 * @return work requests waiting to be started
+	 */
+	public int getQueued();
+
+	/**
+	 * @return most work requests pending at once, waiting or running
+	 */
+	public int getMaxPending();
+
+	/**
+	 * @return median queue wait upper bound, in microseconds
+	 */
+	public long getWaitP50Micros();
+
+	/**
+	 * @return 99th percentile queue wait upper bound, in microseconds
+	 */
+	public long getWaitP99Micros();
+
+	/**
+	 * @return median run time upper bound, in microseconds
+	 */
+	public long getRunP50Micros();
+
+	/**
+	 * @return 99th percentile run time upper bound, in microseconds
+	 */
+	public long getRunP99Micros();
+
+	/**
+	 * @return share of time each worker spent running work, between 0 and 1
+	 */
+	public double[] getUtilization();
+
+}
@@ -0,0 +1,327 @@
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is snapshot of the metrics of a {@link WorkQueue}: how much work was
+ * added, done and failed, how long work waited in the queue and ran, and how
+ * busy each worker was. The snapshot never changes once taken.
+ *
+ * @author alex
+ */
+public class WorkQueueMetrics {
+
+	/**
+	 * Number of log2 buckets in a histogram, enough for any time in
+	 * microseconds a long can hold.
+	 */
+	public static final int BUCKETS = 40;
+
+	/**
+	 * Work requests added to the queue.
+	 */
+	private final long submitted;
+
+	/**
+	 * Work requests that ran without throwing.
+	 */
+	private final long completed;
+
+	/**
+	 * Work requests that threw an exception.
+	 */
+	private final long failed;
+
+	/**
+	 * Work requests rejected or run by the caller because the queue was full.
+	 */
+	private final long rejected;
+
+	/**
+	 * Work requests waiting to be started.
+	 */
+	private final int queued;
+
+	/**
+	 * Most work requests pending at once, waiting or running.
+	 */
+	private final int maxPending;
+
+	/**
+	 * Time between adding and starting work.
+	 */
+	private final Histogram waitTime;
+
+	/**
+	 * Time spent running work.
+	 */
+	private final Histogram runTime;
+
+	/**
+	 * Time each worker spent running work, in nanoseconds.
+	 */
+	private final long[] busy;
+
+	/**
+	 * Time since the queue was started, in nanoseconds.
+	 */
+	private final long uptime;
+
+	/**
+	 * This is constructor for the snapshot.
+	 *
+	 * @param submitted  work requests added
+	 * @param completed  work requests that ran without throwing
+	 * @param failed     work requests that threw an exception
+	 * @param rejected   work requests rejected or run by the caller
+	 * @param queued     work requests waiting to be started
+	 * @param maxPending most work requests pending at once, waiting or running
+	 * @param waitTime   time between adding and starting work
+	 * @param runTime    time spent running work
+	 * @param busy       time each worker spent running work, in nanoseconds
+	 * @param uptime     time since the queue was started, in nanoseconds
+	 */
+	public WorkQueueMetrics(long submitted, long completed, long failed, long rejected, int queued, int maxPending,
+			Histogram waitTime, Histogram runTime, long[] busy, long uptime) {
+		this.submitted = submitted;
+		this.completed = completed;
+		this.failed = failed;
+		this.rejected = rejected;
+		this.queued = queued;
+		this.maxPending = maxPending;
+		this.waitTime = waitTime;
+		this.runTime = runTime;
+		this.busy = busy.clone();
+		this.uptime = uptime;
+	}
+
+	/**
+	 * This function returns how many work requests were added.
+	 *
+	 * @return work requests added
+	 */
+	public long getSubmitted() {
+		return submitted;
+	}
+
+	/**
+	 * This function returns how many work requests ran without throwing.
+	 *
+	 * @return work requests completed
+	 */
+	public long getCompleted() {
+		return completed;
+	}
+
+	/**
+	 * This function returns how many work requests threw an exception.
+	 *
+	 * @return work requests failed
+	 */
+	public long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * This function returns how many work requests were rejected or run by the
+	 * caller because the queue was full.
+	 *
+	 * @return work requests rejected
+	 */
+	public long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * This function returns how many work requests were waiting to be started.
+	 *
+	 * @return queue depth
+	 */
+	public int getQueued() {
+		return queued;
+	}
+
+	/**
+	 * This function returns the most work requests that were pending at once,
+	 * waiting or running.
+	 *
+	 * @return maximum pending work
+	 */
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	/**
+	 * This function returns the histogram of time between adding and starting
+	 * work.
+	 *
+	 * @return queue wait histogram
+	 */
+	public Histogram getWaitTime() {
+		return waitTime;
+	}
+
+	/**
+	 * This function returns the histogram of time spent running work.
+	 *
+	 * @return run time histogram
+	 */
+	public Histogram getRunTime() {
+		return runTime;
+	}
+
+	/**
+	 * This function returns how long each worker spent running work.
+	 *
+	 * @param unit to return the times in
+	 * @return busy time of each worker
+	 */
+	public long[] getBusyTime(TimeUnit unit) {
+		long[] times = new long[busy.length];
+		for (int i = 0; i < busy.length; i++) {
+			times[i] = unit.convert(busy[i], TimeUnit.NANOSECONDS);
+		}
+		return times;
+	}
+
+	/**
+	 * This function returns the share of time each worker spent running work
+	 * since the queue was started.
+	 *
+	 * @return utilization of each worker, between 0 and 1
+	 */
+	public double[] getUtilization() {
+		double[] utilization = new double[busy.length];
+		for (int i = 0; i < busy.length; i++) {
+			utilization[i] = uptime > 0 ? Math.min((double) busy[i] / uptime, 1.0) : 0.0;
+		}
+		return utilization;
+	}
+
+	/**
+	 * This function returns how long the queue has been started.
+	 *
+	 * @param unit to return the time in
+	 * @return uptime
+	 */
+	public long getUptime(TimeUnit unit) {
+		return unit.convert(uptime, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder utilization = new StringBuilder();
+		for (double share : getUtilization()) {
+			utilization.append(utilization.length() == 0 ? "" : " ").append(String.format("%.0f%%", share * 100));
+		}
+
+		return String.format(
+				"submitted=%d completed=%d failed=%d rejected=%d queued=%d maxPending=%d%n"
+						+ "wait: %s%nrun:  %s%nworkers busy: %s over %dms",
+				submitted, completed, failed, rejected, queued, maxPending, waitTime, runTime, utilization,
+				TimeUnit.NANOSECONDS.toMillis(uptime));
+	}
+
+	/**
+	 * This is snapshot of a histogram of times in log2 buckets of microseconds:
+	 * bucket 0 counts times under 1 microsecond and bucket i times from 2^(i-1)
+	 * up to 2^i microseconds.
+	 */
+	public static class Histogram {
+
+		/**
+		 * Count of times in each bucket.
+		 */
+		private final long[] counts;
+
+		/**
+		 * Sum of all times, in nanoseconds.
+		 */
+		private final long total;
+
+		/**
+		 * This is constructor for the histogram snapshot.
+		 *
+		 * @param counts count of times in each bucket
+		 * @param total  sum of all times, in nanoseconds
+		 */
+		public Histogram(long[] counts, long total) {
+			this.counts = Arrays.copyOf(counts, BUCKETS);
+			this.total = total;
+		}
+
+		/**
+		 * This function returns the bucket a time falls in.
+		 *
+		 * @param nanos time in nanoseconds
+		 * @return bucket index
+		 */
+		public static int bucket(long nanos) {
+			long micros = nanos / 1000;
+			return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+		}
+
+		/**
+		 * This function returns the count of times in each bucket.
+		 *
+		 * @return bucket counts
+		 */
+		public long[] getCounts() {
+			return counts.clone();
+		}
+
+		/**
+		 * This function returns how many times were recorded.
+		 *
+		 * @return number of times
+		 */
+		public long getCount() {
+			long count = 0;
+			for (long bucket : counts) {
+				count += bucket;
+			}
+			return count;
+		}
+
+		/**
+		 * This function returns the mean time.
+		 *
+		 * @param unit to return the time in
+		 * @return mean time, or 0 if nothing was recorded
+		 */
+		public double getMean(TimeUnit unit) {
+			long count = getCount();
+			return count == 0 ? 0 : (double) total / count / unit.toNanos(1);
+		}
+
+		/**
+		 * This function returns an upper bound of a percentile, the upper edge of
+		 * the bucket the percentile falls in.
+		 *
+		 * @param percentile between 0 and 100
+		 * @return upper bound in microseconds, or 0 if nothing was recorded
+		 */
+		public long getPercentile(double percentile) {
+			long count = getCount();
+			if (count == 0) {
+				return 0;
+			}
+
+			long rank = (long) Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= Math.max(rank, 1)) {
+					return 1L << i;
+				}
+			}
+			return 1L << (counts.length - 1);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("count=%d mean=%.1fus p50<=%dus p90<=%dus p99<=%dus max<=%dus", getCount(),
+					getMean(TimeUnit.MICROSECONDS), getPercentile(50), getPercentile(90), getPercentile(99),
+					getPercentile(100));
+		}
+	}
+}
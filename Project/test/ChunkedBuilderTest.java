@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * This is a test comparing the JSON of an index built by the threaded builder
+ * with big files split in small parts against the JSON of the sequential
+ * builder. The files mix CR, LF and CRLF line endings, no-break spaces, runs of
+ * spaces and words of many bytes, so parts start and end at every kind of
+ * boundary, and every position must still be the same.
+ *
+ * Run from the Project directory, with the OpenNLP and Jetty jars in libs:
+ *
+ * <pre>
+ * javac -d out -cp "libs/*" src/*.java test/*.java
+ * java -cp "out:libs/*" ChunkedBuilderTest
+ * </pre>
+ *
+ * @author alex
+ *
+ */
+public class ChunkedBuilderTest {
+
+	/**
+	 * Sizes of the parts the files are split in, the smallest ones making a
+	 * part of almost every word.
+	 */
+	private static final long[] CHUNK_SIZES = { 1, 2, 3, 7, 16, 61, 256, 4096 };
+
+	/**
+	 * Words the generated files are made of, some of them many bytes long in UTF-8.
+	 */
+	private static final String[] WORDS = { "apple", "Apples", "cherry", "na\u00EFve", "caf\u00E9", "\u00FCber",
+			"stra\u00DFe", "mango", "don't", "e-mail", "1984", "plum", "\u00DCn\u00EFc\u00F6d\u00E9", "fig" };
+
+	/**
+	 * What the generated files put between words.
+	 */
+	private static final String[] SEPARATORS = { " ", "  ", "\n", "\r", "\r\n", "\n\n", "\r\r\n", "\u00A0",
+			" \u00A0 ", "\t", "\u2003", ", ", ". " };
+
+	/**
+	 * Number of checks that failed.
+	 */
+	private static int failures = 0;
+
+	/**
+	 * This function runs every check and exits with status 1 if any failed.
+	 *
+	 * @param args unused
+	 * @throws Exception if the test files can not be made
+	 */
+	public static void main(String[] args) throws Exception {
+		Path dir = Files.createTempDirectory("chunked");
+		try {
+			Random random = new Random(11);
+			for (int i = 0; i < 12; i++) {
+				makeFile(dir.resolve("mixed" + i + ".txt"), random, 50 + 300 * i);
+			}
+			Files.writeString(dir.resolve("crlf.txt"), "one two\r\nthree\r\n\r\nfour\r\n", StandardCharsets.UTF_8);
+			Files.writeString(dir.resolve("cr.txt"), "one\rtwo\r\rthree\r", StandardCharsets.UTF_8);
+			Files.writeString(dir.resolve("nbsp.txt"), "\u00A0one\u00A0\u00A0two\u00A0three\u00A0",
+					StandardCharsets.UTF_8);
+			Files.writeString(dir.resolve("empty.txt"), "", StandardCharsets.UTF_8);
+			Files.writeString(dir.resolve("spaces.txt"), " \r\n \u00A0 \n", StandardCharsets.UTF_8);
+			Files.writeString(dir.resolve("single.txt"), "supercalifragilistic", StandardCharsets.UTF_8);
+
+			InvertedIndex sequential = new InvertedIndex();
+			new InvertedIndexBuilder(sequential).traversePath(dir);
+			String expected = json(sequential);
+
+			for (long chunkSize : CHUNK_SIZES) {
+				ThreadedInvertedIndex index = new ThreadedInvertedIndex();
+				ThreadedInvertedIndexBuilder builder = new ThreadedInvertedIndexBuilder(index, 4);
+				builder.setChunkSize(chunkSize);
+				builder.traversePath(dir);
+
+				check("chunk size " + chunkSize + " no failed files", builder.getFailed().isEmpty());
+				check("chunk size " + chunkSize + " same JSON as sequential", json(index).equals(expected));
+				check("chunk size " + chunkSize + " same counts as sequential",
+						index.getCounts().equals(sequential.getCounts()));
+			}
+		} finally {
+			try (Stream<Path> files = Files.walk(dir)) {
+				files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+
+		if (failures > 0) {
+			System.out.println(failures + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+	}
+
+	/**
+	 * This function writes a file of random words and separators.
+	 *
+	 * @param path   of the file
+	 * @param random source of the words
+	 * @param words  number of words
+	 * @throws IOException if the file can not be written
+	 */
+	private static void makeFile(Path path, Random random, int words) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < words; i++) {
+			text.append(WORDS[random.nextInt(WORDS.length)]);
+			text.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+		}
+		Files.writeString(path, text, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * This function returns the JSON of an index.
+	 *
+	 * @param index to print
+	 * @return JSON written by {@link InvertedIndex#printIndex(Path)}
+	 * @throws IOException if the JSON can not be written
+	 */
+	private static String json(InvertedIndex index) throws IOException {
+		Path path = Files.createTempFile("index", ".json");
+		try {
+			index.printIndex(path);
+			return Files.readString(path, StandardCharsets.UTF_8);
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	/**
+	 * This function records the result of a check.
+	 *
+	 * @param name   of the check
+	 * @param passed true if the check passed
+	 */
+	private static void check(String name, boolean passed) {
+		if (!passed) {
+			failures++;
+			System.out.println("FAILED " + name);
+		} else {
+			System.out.println("passed " + name);
+		}
+	}
+}
@@ -0,0 +1,324 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * This is a stress test running the threaded builder and the threaded query
+ * handler on the same index at once. Every search made while the index is being
+ * built must only find locations and counts the finished index has, and once the
+ * build is done the index and the results must be the same as the ones of the
+ * sequential builder. It also races adds and removals on the concurrent index,
+ * where a removal may drop the map of a word a writer is adding to.
+ *
+ * Run from the Project directory, with the OpenNLP and Jetty jars in libs:
+ *
+ * <pre>
+ * javac -d out -cp "libs/*" src/*.java test/*.java
+ * java -cp "out:libs/*" ThreadedIndexStressTest
+ * </pre>
+ *
+ * @author alex
+ *
+ */
+public class ThreadedIndexStressTest {
+
+	/**
+	 * Number of threads of the builder and of the query handler.
+	 */
+	private static final int THREADS = 4;
+
+	/**
+	 * Number of times every index is built while searched.
+	 */
+	private static final int ROUNDS = 5;
+
+	/**
+	 * Words the generated files are made of, few enough to be found in many files.
+	 */
+	private static final String[] WORDS = { "apple", "apples", "banana", "cherry", "cherries", "date", "elder",
+			"fig", "grape", "grapes", "hazel", "kiwi", "lemon", "lime", "mango", "melon", "olive", "peach", "pear",
+			"plum" };
+
+	/**
+	 * Query lines searched while the index is built.
+	 */
+	private static final String[] QUERIES = { "apple", "cherry lemon", "grape", "app", "pea plum", "me", "kiwi fig",
+			"olive date elder", "zebra" };
+
+	/**
+	 * Number of checks that failed.
+	 */
+	private static int failures = 0;
+
+	/**
+	 * This function runs every check and exits with status 1 if any failed.
+	 *
+	 * @param args unused
+	 * @throws Exception if the test files can not be made
+	 */
+	public static void main(String[] args) throws Exception {
+		Path dir = Files.createTempDirectory("stress");
+		try {
+			makeFiles(dir, 60);
+
+			InvertedIndex sequential = new InvertedIndex();
+			new InvertedIndexBuilder(sequential).traversePath(dir);
+
+			Map<String, List<InvertedIndex.SearchResult>> expected = new HashMap<>();
+			for (String line : QUERIES) {
+				for (boolean exact : new boolean[] { true, false }) {
+					expected.put(exact + line, new QueryHandler(sequential).search(line, exact, Integer.MAX_VALUE));
+				}
+			}
+
+			checkBuild("ThreadedInvertedIndex", ThreadedInvertedIndex::new, dir, sequential, expected);
+			checkBuild("ConcurrentInvertedIndex", ConcurrentInvertedIndex::new, dir, sequential, expected);
+			checkBuild("SnapshotInvertedIndex", () -> new SnapshotInvertedIndex(1), dir, sequential, expected);
+			checkBuild("ShardedInvertedIndex", () -> new ShardedInvertedIndex(3), dir, sequential, expected);
+			checkRemovals();
+		} finally {
+			try (Stream<Path> files = Files.walk(dir)) {
+				files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+
+		if (failures > 0) {
+			System.out.println(failures + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+	}
+
+	/**
+	 * This function builds an index with the threaded builder while another
+	 * thread searches it with the threaded query handler, then compares the
+	 * finished index and its results with the sequential ones.
+	 *
+	 * @param name       of the index checked
+	 * @param factory    making an empty index
+	 * @param dir        the files are in
+	 * @param sequential index built by the sequential builder
+	 * @param expected   results of the sequential index for every query
+	 * @throws Exception if the build or the search thread fails
+	 */
+	private static void checkBuild(String name, Supplier<ThreadSafeInvertedIndex> factory, Path dir,
+			InvertedIndex sequential, Map<String, List<InvertedIndex.SearchResult>> expected) throws Exception {
+		for (int round = 0; round < ROUNDS; round++) {
+			ThreadSafeInvertedIndex index = factory.get();
+			ThreadedInvertedIndexBuilder builder = new ThreadedInvertedIndexBuilder(index, THREADS);
+			// small parts, so big files are built by many tasks and merged
+			builder.setChunkSize(256);
+			ThreadedQueryHandler handler = new ThreadedQueryHandler(index, THREADS);
+
+			AtomicBoolean done = new AtomicBoolean(false);
+			AtomicReference<String> problem = new AtomicReference<>();
+			int[] searches = new int[1];
+			Thread searcher = new Thread(() -> {
+				try {
+					while (!done.get() && problem.get() == null) {
+						for (String line : QUERIES) {
+							for (boolean exact : new boolean[] { true, false }) {
+								String error = compare(handler.search(line, exact, Integer.MAX_VALUE),
+										expected.get(exact + line));
+								if (error != null) {
+									problem.compareAndSet(null, (exact ? "exact " : "partial ") + line + ": " + error);
+								}
+								searches[0]++;
+							}
+						}
+					}
+				} catch (RuntimeException e) {
+					problem.compareAndSet(null, e.toString());
+				}
+			});
+
+			searcher.start();
+			try {
+				builder.traversePath(dir);
+			} finally {
+				done.set(true);
+				searcher.join();
+			}
+
+			check(name + " round " + round + " searches during the build", problem.get() == null, problem.get());
+			check(name + " round " + round + " no failed files", builder.getFailed().isEmpty(),
+					builder.getFailed().toString());
+			check(name + " round " + round + " same index as sequential", sameJson(index, sequential), null);
+
+			for (String line : QUERIES) {
+				for (boolean exact : new boolean[] { true, false }) {
+					List<InvertedIndex.SearchResult> actual = handler.search(line, exact, Integer.MAX_VALUE);
+					List<InvertedIndex.SearchResult> wanted = expected.get(exact + line);
+					check(name + " round " + round + " results of " + line, format(actual).equals(format(wanted)),
+							format(actual) + " instead of " + format(wanted));
+				}
+			}
+			System.out.printf("%s round %d: %d searches during the build%n", name, round, searches[0]);
+		}
+	}
+
+	/**
+	 * This function checks results found while the index is built against the
+	 * results of the finished index. Every location found must be found in the
+	 * end, with a count no larger than in the end.
+	 *
+	 * @param actual   results found while building
+	 * @param expected results of the finished index
+	 * @return description of the first difference, or null if consistent
+	 */
+	private static String compare(List<InvertedIndex.SearchResult> actual, List<InvertedIndex.SearchResult> expected) {
+		Map<String, Integer> counts = new HashMap<>();
+		for (InvertedIndex.SearchResult result : expected) {
+			counts.put(result.getLocation(), result.getCount());
+		}
+
+		for (InvertedIndex.SearchResult result : actual) {
+			Integer count = counts.get(result.getLocation());
+			if (count == null) {
+				return "found " + result.getLocation() + " which is not in the finished index";
+			}
+			if (result.getCount() > count) {
+				return "count " + result.getCount() + " for " + result.getLocation() + " over " + count;
+			}
+		}
+
+		for (int i = 1; i < actual.size(); i++) {
+			if (actual.get(i - 1).compareTo(actual.get(i)) > 0) {
+				return "results out of order at " + i;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * This function adds locations of words to the concurrent index while
+	 * another thread removes other locations, so words become empty and their
+	 * maps are dropped while adds are running. Every location added and never
+	 * removed must be in the index in the end.
+	 *
+	 * @throws InterruptedException if interrupted
+	 */
+	private static void checkRemovals() throws InterruptedException {
+		for (int round = 0; round < ROUNDS * 20; round++) {
+			ConcurrentInvertedIndex index = new ConcurrentInvertedIndex();
+			int words = 8;
+			int locations = 200;
+
+			Thread writer = new Thread(() -> {
+				for (int i = 0; i < locations; i++) {
+					index.addEntry("w" + (i % words), "kept" + i, 1);
+				}
+			});
+			Thread remover = new Thread(() -> {
+				for (int i = 0; i < locations; i++) {
+					index.addEntry("w" + (i % words), "gone" + i, 1);
+					index.removeAll(Collections.singleton("gone" + i));
+				}
+			});
+
+			writer.start();
+			remover.start();
+			writer.join();
+			remover.join();
+
+			List<String> missing = new ArrayList<>();
+			for (int i = 0; i < locations; i++) {
+				if (!index.contains("w" + (i % words), "kept" + i)) {
+					missing.add("kept" + i);
+				}
+			}
+			if (!check("ConcurrentInvertedIndex round " + round + " adds racing removals", missing.isEmpty(),
+					"missing " + missing)) {
+				return;
+			}
+		}
+		System.out.println("ConcurrentInvertedIndex: adds racing removals");
+	}
+
+	/**
+	 * This function compares the JSON of two indexes.
+	 *
+	 * @param index  to compare
+	 * @param other  to compare with
+	 * @return true if both print the same JSON
+	 * @throws IOException if the JSON can not be written
+	 */
+	private static boolean sameJson(InvertedIndex index, InvertedIndex other) throws IOException {
+		Path first = Files.createTempFile("index", ".json");
+		Path second = Files.createTempFile("index", ".json");
+		try {
+			index.printIndex(first);
+			other.printIndex(second);
+			return Files.mismatch(first, second) == -1;
+		} finally {
+			Files.delete(first);
+			Files.delete(second);
+		}
+	}
+
+	/**
+	 * This function formats results the way they are written to JSON.
+	 *
+	 * @param results to format
+	 * @return one line per result
+	 */
+	private static String format(List<InvertedIndex.SearchResult> results) {
+		StringBuilder out = new StringBuilder();
+		for (InvertedIndex.SearchResult result : results) {
+			out.append(result.getWhereString()).append(result.getCountString()).append(result.getScoreString())
+					.append('\n');
+		}
+		return out.toString();
+	}
+
+	/**
+	 * This function makes text files of random words, some big enough to be
+	 * split in parts.
+	 *
+	 * @param dir   the files are made in
+	 * @param count number of files
+	 * @throws IOException if a file can not be written
+	 */
+	private static void makeFiles(Path dir, int count) throws IOException {
+		Random random = new Random(7);
+		for (int i = 0; i < count; i++) {
+			Path path = dir.resolve("file" + i + ".txt");
+			int size = i % 10 == 0 ? 2000 : 20 + random.nextInt(200);
+			try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+				for (int j = 0; j < size; j++) {
+					writer.write(WORDS[random.nextInt(WORDS.length)]);
+					writer.write(j % 12 == 11 ? "\n" : " ");
+				}
+			}
+		}
+	}
+
+	/**
+	 * This function records the result of a check.
+	 *
+	 * @param name   of the check
+	 * @param passed true if the check passed
+	 * @param detail shown if the check failed
+	 * @return passed
+	 */
+	private static boolean check(String name, boolean passed, String detail) {
+		if (!passed) {
+			failures++;
+			System.out.println("FAILED " + name + (detail == null ? "" : ": " + detail));
+		}
+		return passed;
+	}
+}